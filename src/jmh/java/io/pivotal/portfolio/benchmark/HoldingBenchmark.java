@@ -0,0 +1,60 @@
+package io.pivotal.portfolio.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.pivotal.portfolio.domain.Holding;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.Position;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures adding the whole order history of one symbol to a holding, and
+ * applying it to a position.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HoldingBenchmark {
+
+	@Param({ "1", "1000", "100000", "1000000" })
+	public int orders;
+
+	private List<Order> history;
+
+	@Setup
+	public void setup() {
+		history = OrderHistoryGenerator.orders(orders, 1, 42);
+	}
+
+	@Benchmark
+	public Holding addOrder() {
+		Holding holding = new Holding();
+		holding.setSymbol(OrderHistoryGenerator.symbol(0));
+		for (Order order : history) {
+			holding.addOrder(order);
+		}
+		return holding;
+	}
+
+	@Benchmark
+	public Position applyOrder() {
+		Position position = new Position();
+		position.setSymbol(OrderHistoryGenerator.symbol(0));
+		for (Order order : history) {
+			position.apply(order);
+		}
+		return position;
+	}
+}
@@ -0,0 +1,90 @@
+package io.pivotal.portfolio.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderType;
+
+/**
+ * Generates synthetic, reproducible order histories for the benchmarks.
+ * 
+ * Orders are spread over the symbols round robin, so every symbol is held
+ * once there are at least as many orders as symbols. Roughly one order in
+ * four is a sale.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public final class OrderHistoryGenerator {
+
+	public static final String USER_ID = "benchmark@user.com";
+
+	private static final long START = 1420070400000L;
+
+	private OrderHistoryGenerator() {
+	}
+
+	/**
+	 * @param index
+	 *            the index of the symbol.
+	 * @return the symbol, at most 10 characters long.
+	 */
+	public static String symbol(int index) {
+		return "S" + index;
+	}
+
+	/**
+	 * Generates an order history.
+	 * 
+	 * @param orderCount
+	 *            the number of orders.
+	 * @param symbolCount
+	 *            the number of symbols the orders are spread over.
+	 * @param seed
+	 *            the seed of the prices and quantities.
+	 * @return the orders, in completion order, with increasing ids.
+	 */
+	public static List<Order> orders(int orderCount, int symbolCount, long seed) {
+		Random random = new Random(seed);
+		List<Order> orders = new ArrayList<>(orderCount);
+		for (int i = 0; i < orderCount; i++) {
+			Order order = new Order();
+			order.setOrderId(i + 1);
+			order.setAccountId(1);
+			order.setUserId(USER_ID);
+			order.setSymbol(symbol(i % symbolCount));
+			order.setCurrency("USD");
+			order.setOrderType(random.nextInt(4) == 0 ? OrderType.SELL : OrderType.BUY);
+			order.setQuantity(1 + random.nextInt(500));
+			order.setPrice(BigDecimal.valueOf(100 + random.nextInt(100000), 2));
+			order.setOrderFee(Order.DEFAULT_ORDER_FEE);
+			order.setCompletionDate(new Date(START + i * 1000L));
+			orders.add(order);
+		}
+		return orders;
+	}
+
+	/**
+	 * Generates a current price for each symbol.
+	 * 
+	 * @param symbolCount
+	 *            the number of symbols.
+	 * @param seed
+	 *            the seed of the prices.
+	 * @return the prices, by symbol.
+	 */
+	public static Map<String, BigDecimal> prices(int symbolCount, long seed) {
+		Random random = new Random(seed);
+		Map<String, BigDecimal> prices = new LinkedHashMap<>();
+		for (int i = 0; i < symbolCount; i++) {
+			prices.put(symbol(i), BigDecimal.valueOf(100 + random.nextInt(100000), 2));
+		}
+		return prices;
+	}
+}
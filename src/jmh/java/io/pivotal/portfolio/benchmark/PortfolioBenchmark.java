@@ -0,0 +1,101 @@
+package io.pivotal.portfolio.benchmark;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivotal.portfolio.domain.Holding;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.Portfolio;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures building a portfolio from the order history, as the portfolio
+ * used to be created and as positions are still verified, valuing it, and
+ * serializing it with and without the orders.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PortfolioBenchmark {
+
+	@Param({ "1", "1000", "100000", "1000000" })
+	public int orders;
+
+	@Param({ "1", "50", "5000" })
+	public int symbols;
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private List<Order> history;
+
+	/**
+	 * Portfolio with the orders in its holdings, valued.
+	 */
+	private Portfolio full;
+
+	/**
+	 * The same portfolio without the orders, as read from the positions.
+	 */
+	private Portfolio summary;
+
+	@Setup
+	public void setup() {
+		history = OrderHistoryGenerator.orders(orders, symbols, 42);
+		Map<String, BigDecimal> prices = OrderHistoryGenerator.prices(symbols, 7);
+		full = replay();
+		summary = new Portfolio();
+		for (Holding holding : full.getHoldings().values()) {
+			holding.setCurrentValue(prices.get(holding.getSymbol()));
+			Holding withoutOrders = new Holding();
+			withoutOrders.setSymbol(holding.getSymbol());
+			withoutOrders.setCurrency(holding.getCurrency());
+			withoutOrders.setQuantity(holding.getQuantity());
+			withoutOrders.setPurchaseValue(holding.getPurchaseValue());
+			withoutOrders.setSellValue(holding.getSellValue());
+			withoutOrders.setCurrentValue(holding.getCurrentValue());
+			summary.addHolding(withoutOrders);
+		}
+		full.refreshTotalValue();
+		summary.refreshTotalValue();
+	}
+
+	@Benchmark
+	public Portfolio replay() {
+		Portfolio portfolio = new Portfolio();
+		for (Order order : history) {
+			portfolio.addOrder(order);
+		}
+		return portfolio;
+	}
+
+	@Benchmark
+	public Portfolio refreshTotalValue() {
+		summary.refreshTotalValue();
+		return summary;
+	}
+
+	@Benchmark
+	public byte[] serializeSummary() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(summary);
+	}
+
+	@Benchmark
+	public byte[] serializeFull() throws JsonProcessingException {
+		return mapper.writeValueAsBytes(full);
+	}
+}
@@ -1,11 +1,16 @@
 package io.pivotal.portfolio.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.reactive.LoadBalancerExchangeFilterFunction;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
 import org.springframework.security.oauth2.client.web.OAuth2AuthorizedClientRepository;
 import org.springframework.security.oauth2.client.web.reactive.function.client.ServletOAuth2AuthorizedClientExchangeFilterFunction;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.reactive.function.client.WebClient;
 
 @Configuration
@@ -19,4 +24,23 @@ public class BeanConfiguration {
                 .build();
     }
 
+    @Bean
+    public ThreadPoolTaskExecutor quoteRefreshExecutor(@Value("${pivotal.quotes.cache.refreshThreads:2}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(100);
+        executor.setThreadNamePrefix("quote-refresh-");
+        return executor;
+    }
+
+    /**
+     * Replaces the default Jackson converter, to time the serialization of
+     * the responses.
+     */
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper, MeterRegistry registry) {
+        return new TimedJackson2HttpMessageConverter(objectMapper, registry);
+    }
+
 }
@@ -0,0 +1,23 @@
+package io.pivotal.portfolio.config;
+
+import org.springframework.cloud.stream.annotation.Output;
+import org.springframework.messaging.MessageChannel;
+
+/**
+ * The stream bindings the portfolio service publishes its order events on.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public interface OrderEventsBinding {
+
+	String ORDER_PLACED = "orderPlaced";
+
+	String ORDER_CANCELLED = "orderCancelled";
+
+	@Output(ORDER_PLACED)
+	MessageChannel orderPlaced();
+
+	@Output(ORDER_CANCELLED)
+	MessageChannel orderCancelled();
+}
@@ -0,0 +1,18 @@
+package io.pivotal.portfolio.config;
+
+import org.springframework.cloud.stream.annotation.Input;
+import org.springframework.messaging.SubscribableChannel;
+
+/**
+ * The stream binding the portfolio service receives price updates on.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public interface QuoteUpdatesBinding {
+
+	String QUOTE_UPDATES = "quoteUpdates";
+
+	@Input(QUOTE_UPDATES)
+	SubscribableChannel quoteUpdates();
+}
@@ -1,5 +1,6 @@
 package io.pivotal.portfolio.config;
 
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
 import org.springframework.boot.autoconfigure.security.oauth2.resource.OAuth2ResourceServerProperties;
@@ -20,6 +21,12 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
     @Autowired
     private OAuth2ResourceServerProperties resourceServerProperties;
 
+    /**
+     * A decoder defined as a bean, used instead of the issuer's one.
+     */
+    @Autowired
+    private ObjectProvider<JwtDecoder> jwtDecoders;
+
     @Override
     protected void configure(HttpSecurity http) throws Exception {
         http.csrf().disable()
@@ -28,7 +35,7 @@ public class SecurityConfig extends WebSecurityConfigurerAdapter {
                 .anyRequest().fullyAuthenticated()
                 .and().oauth2Client()
                 .and().oauth2ResourceServer()
-                .jwt().jwtAuthenticationConverter(grantedAuthoritiesConverter).decoder(jwtDecoder());
+                .jwt().jwtAuthenticationConverter(grantedAuthoritiesConverter).decoder(jwtDecoders.getIfAvailable(this::jwtDecoder));
     }
 
     private JwtDecoder jwtDecoder() {
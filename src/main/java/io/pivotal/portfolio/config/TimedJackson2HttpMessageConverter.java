@@ -0,0 +1,46 @@
+package io.pivotal.portfolio.config;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+/**
+ * Jackson converter that times the serialization of the response bodies,
+ * as the <code>portfolio.serialization</code> timer tagged with the type of
+ * the body and the outcome.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class TimedJackson2HttpMessageConverter extends MappingJackson2HttpMessageConverter {
+
+	private final MeterRegistry registry;
+
+	public TimedJackson2HttpMessageConverter(ObjectMapper objectMapper, MeterRegistry registry) {
+		super(objectMapper);
+		this.registry = registry;
+	}
+
+	@Override
+	protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		long start = System.nanoTime();
+		String outcome = "error";
+		try {
+			super.writeInternal(object, type, outputMessage);
+			outcome = "success";
+		} finally {
+			registry.timer("portfolio.serialization",
+					"type", object == null ? "null" : object.getClass().getSimpleName(),
+					"outcome", outcome)
+					.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package io.pivotal.portfolio.controller;
+
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+
+/**
+ * Resolves the user a request is made for, the same way for every
+ * controller.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+final class AuthenticatedUser {
+
+	private static final String USER_ID_CLAIM = "user_id";
+
+	private AuthenticatedUser() {
+	}
+
+	/**
+	 * The user id claim of the token, falling back to the subject for tokens
+	 * that do not carry it.
+	 *
+	 * @param token
+	 *            the token of the request.
+	 * @return the user id.
+	 */
+	static String getUserId(JwtAuthenticationToken token) {
+		String userId = token.getToken().getClaimAsString(USER_ID_CLAIM);
+		return userId != null ? userId : token.getName();
+	}
+}
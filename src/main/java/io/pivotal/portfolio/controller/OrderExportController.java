@@ -0,0 +1,70 @@
+package io.pivotal.portfolio.controller;
+
+import io.pivotal.portfolio.service.OrderExportService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+/**
+ * Provides the REST API to export the order history.
+ * 
+ * Provides the following endpoints:
+ * <p><ul>
+ * <li>GET <code>/portfolio/export?format=csv</code> streams the order history as CSV.
+ * <li>GET <code>/portfolio/export?format=ndjson</code> streams the order history as newline delimited JSON.
+ * </ul><p>
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@RestController
+public class OrderExportController {
+	private static final Logger logger = LoggerFactory
+			.getLogger(OrderExportController.class);
+
+	/**
+	 * the service to delegate to.
+	 */
+	@Autowired
+	private OrderExportService service;
+
+	/**
+	 * Streams the order history of the user.
+	 * @param format <code>csv</code> or <code>ndjson</code>.
+	 * @return The orders with HTTP OK, or BAD REQUEST for an unknown format.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO')")
+	@RequestMapping(value = "/portfolio/export", method = RequestMethod.GET)
+	public ResponseEntity<StreamingResponseBody> export(@AuthenticationPrincipal JwtAuthenticationToken token,
+														@RequestParam(value = "format", defaultValue = "csv") String format) {
+		OrderExportService.Format exportFormat;
+		try {
+			exportFormat = OrderExportService.Format.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			logger.warn("OrderExportController: Unknown export format: " + format);
+			return new ResponseEntity<StreamingResponseBody>(HttpStatus.BAD_REQUEST);
+		}
+		// resolved here, the body is written outside the request thread.
+		String userId = AuthenticatedUser.getUserId(token);
+		logger.debug("OrderExportController: Exporting orders as " + exportFormat + " for user id:" + userId);
+		HttpHeaders headers = new HttpHeaders();
+		headers.set("Cache-Control", "no-cache");
+		headers.set(HttpHeaders.CONTENT_TYPE, exportFormat.getContentType());
+		headers.set(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=\"orders." + exportFormat.name().toLowerCase() + "\"");
+		StreamingResponseBody body = out -> service.export(userId, exportFormat, out);
+		return new ResponseEntity<StreamingResponseBody>(body, headers, HttpStatus.OK);
+	}
+}
@@ -0,0 +1,67 @@
+package io.pivotal.portfolio.controller;
+
+import java.io.InputStream;
+import java.util.List;
+
+import io.pivotal.portfolio.domain.OrderImportJob;
+import io.pivotal.portfolio.service.OrderImportService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Provides the administrative REST API to import historical orders.
+ * 
+ * Provides the following endpoints:
+ * <p><ul>
+ * <li>POST <code>/admin/orders/import</code> imports the orders of the CSV request body.
+ * <li>GET <code>/admin/orders/import</code> retrieves the progress of the running and recent imports.
+ * </ul><p>
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@RestController
+public class OrderImportController {
+	private static final Logger logger = LoggerFactory
+			.getLogger(OrderImportController.class);
+
+	/**
+	 * the service to delegate to.
+	 */
+	@Autowired
+	private OrderImportService service;
+
+	/**
+	 * Imports the orders of the CSV request body, read as it is received.
+	 * 
+	 * @param body the CSV orders.
+	 * @return The import job with HTTP OK, or BAD REQUEST if the import failed.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO_ADMIN')")
+	@RequestMapping(value = "/admin/orders/import", method = RequestMethod.POST)
+	public ResponseEntity<OrderImportJob> importOrders(InputStream body) {
+		OrderImportJob job = service.importOrders(body);
+		logger.info("Order import finished: " + job);
+		HttpStatus status = job.getStatus() == OrderImportJob.Status.FAILED ? HttpStatus.BAD_REQUEST : HttpStatus.OK;
+		return new ResponseEntity<OrderImportJob>(job, status);
+	}
+
+	/**
+	 * Retrieves the progress of the running and recent imports.
+	 * 
+	 * @return The import jobs with HTTP OK.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO_ADMIN')")
+	@RequestMapping(value = "/admin/orders/import", method = RequestMethod.GET)
+	public ResponseEntity<List<OrderImportJob>> getJobs() {
+		return new ResponseEntity<List<OrderImportJob>>(service.getJobs(), HttpStatus.OK);
+	}
+}
@@ -1,12 +1,24 @@
 package io.pivotal.portfolio.controller;
 
+import java.util.Date;
+import java.util.List;
+
 import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderHistoryFilter;
+import io.pivotal.portfolio.domain.OrderHistoryPage;
+import io.pivotal.portfolio.domain.OrderResult;
+import io.pivotal.portfolio.domain.OrderType;
 import io.pivotal.portfolio.domain.Portfolio;
+import io.pivotal.portfolio.service.IdempotencyConflictException;
+import io.pivotal.portfolio.service.IdempotentOrderService;
 import io.pivotal.portfolio.service.PortfolioService;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
@@ -17,8 +29,10 @@ import org.springframework.security.oauth2.client.annotation.RegisteredOAuth2Aut
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.util.UriComponentsBuilder;
 /**
@@ -27,7 +41,13 @@ import org.springframework.web.util.UriComponentsBuilder;
  * Provides the following endpoints:
  * <p><ul>
  * <li>GET <code>/portfolio/{id}</code> retrieves the portfolio with given user id.
+ * <li>GET <code>/portfolio?view=summary</code> retrieves the holdings and totals of the portfolio, without the orders of each holding.
+ * <li>GET <code>/portfolio?view=full</code> retrieves the portfolio with the orders of each holding, the default.
+ * <li>GET <code>/portfolio?budget=500</code> retrieves the portfolio within the given number of milliseconds.
+ * <li>GET <code>/portfolio/holdings/{symbol}/orders</code> retrieves a page of the orders of one holding.
+ * <li>GET <code>/portfolio/orders</code> retrieves the order history, a page at a time.
  * <li>POST <code>/portfolio{id}</code> adds an order to the portfolio with the given user id.
+ * <li>POST <code>/portfolio/batch</code> adds a batch of orders to the portfolio of the user.
  * </ul><p>
  * 
  * @author David Ferreira Pinto
@@ -38,25 +58,106 @@ public class PortfolioController {
 	private static final Logger logger = LoggerFactory
 			.getLogger(PortfolioController.class);
 
+	private static final String VIEW_SUMMARY = "summary";
+	private static final String VIEW_FULL = "full";
+	private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
 	/**
 	 * the service to delegate to.
 	 */
 	@Autowired
 	private PortfolioService service;
 
+	@Autowired
+	private IdempotentOrderService idempotentService;
+
+	@Value("${pivotal.portfolio.batch.maxOrders:200}")
+	private int maxBatchOrders;
+
 	/**
 	 * Retrieves the portfolio for the given account.
-	 * @return The portfolio with HTTP OK.
+	 * @param view <code>full</code>, the default, to embed the orders of each holding, or <code>summary</code> for the holdings and totals only.
+	 * @param budget The latency budget in milliseconds, the configured one if not given.
+	 * @return The portfolio with HTTP OK, or BAD REQUEST for an unknown view or a budget that is not positive.
 	 */
 	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO')")
 	@RequestMapping(value = "/portfolio", method = RequestMethod.GET)
-	public ResponseEntity<Portfolio> getPortfolio() {
-		logger.debug("PortfolioController: Retrieving portfolio with user id:" );
-		Portfolio folio = service.getPortfolio();
+	public ResponseEntity<Portfolio> getPortfolio(@AuthenticationPrincipal JwtAuthenticationToken token,
+												  @RequestParam(value = "view", defaultValue = VIEW_FULL) String view,
+												  @RequestParam(value = "budget", required = false) Long budget) {
+		if (!VIEW_SUMMARY.equalsIgnoreCase(view) && !VIEW_FULL.equalsIgnoreCase(view)) {
+			logger.warn("PortfolioController: Unknown portfolio view: " + view);
+			return new ResponseEntity<Portfolio>(getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
+		if (budget != null && budget <= 0) {
+			logger.warn("PortfolioController: Invalid portfolio budget: " + budget);
+			return new ResponseEntity<Portfolio>(getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
+		String userId = AuthenticatedUser.getUserId(token);
+		logger.debug("PortfolioController: Retrieving portfolio with user id:" + userId);
+		Portfolio folio = service.getPortfolio(userId, VIEW_FULL.equalsIgnoreCase(view), budget);
 		logger.debug("PortfolioController: Retrieved portfolio:" + folio);
 		return new ResponseEntity<Portfolio>(folio, getNoCacheHeaders(), HttpStatus.OK);
 	}
+
+	/**
+	 * Retrieves a page of the orders of one holding, the most recent first.
+	 * @param symbol The symbol of the holding.
+	 * @param page The zero based page number.
+	 * @param size The page size.
+	 * @return The page of orders with HTTP OK.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO')")
+	@RequestMapping(value = "/portfolio/holdings/{symbol}/orders", method = RequestMethod.GET)
+	public ResponseEntity<Page<Order>> getHoldingOrders(@AuthenticationPrincipal JwtAuthenticationToken token,
+														@PathVariable("symbol") final String symbol,
+														@RequestParam(value = "page", defaultValue = "0") int page,
+														@RequestParam(value = "size", defaultValue = "50") int size) {
+		String userId = AuthenticatedUser.getUserId(token);
+		logger.debug("PortfolioController: Retrieving orders of " + symbol + " with user id:" + userId);
+		Page<Order> orders = service.getHoldingOrders(userId, symbol, page, size);
+		return new ResponseEntity<Page<Order>>(orders, getNoCacheHeaders(), HttpStatus.OK);
+	}
 	
+	/**
+	 * Retrieves a page of the order history, the most recent first. Pages
+	 * are chained through the next cursor of the previous page.
+	 * @param symbol Only the orders of the symbol, if given.
+	 * @param type Only the orders of the type, if given.
+	 * @param from Only the orders completed at or after the date, if given.
+	 * @param to Only the orders completed before the date, if given.
+	 * @param tag Only the orders with the tag, if given.
+	 * @param cursor The next cursor of the previous page.
+	 * @param size The page size.
+	 * @return The page of orders with HTTP OK, or BAD REQUEST if the cursor is not valid.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO')")
+	@RequestMapping(value = "/portfolio/orders", method = RequestMethod.GET)
+	public ResponseEntity<OrderHistoryPage> getOrderHistory(@AuthenticationPrincipal JwtAuthenticationToken token,
+															@RequestParam(value = "symbol", required = false) String symbol,
+															@RequestParam(value = "type", required = false) OrderType type,
+															@RequestParam(value = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+															@RequestParam(value = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+															@RequestParam(value = "tag", required = false) String tag,
+															@RequestParam(value = "cursor", required = false) String cursor,
+															@RequestParam(value = "size", defaultValue = "50") int size) {
+		OrderHistoryFilter filter = new OrderHistoryFilter();
+		filter.setUserId(AuthenticatedUser.getUserId(token));
+		filter.setSymbol(symbol);
+		filter.setOrderType(type);
+		filter.setFrom(from);
+		filter.setTo(to);
+		filter.setTag(tag);
+		logger.debug("PortfolioController: Retrieving order history: " + filter);
+		try {
+			OrderHistoryPage page = service.getOrderHistory(filter, cursor, size);
+			return new ResponseEntity<OrderHistoryPage>(page, getNoCacheHeaders(), HttpStatus.OK);
+		} catch (IllegalArgumentException e) {
+			logger.warn("PortfolioController: " + e.getMessage());
+			return new ResponseEntity<OrderHistoryPage>(getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
 	private HttpHeaders getNoCacheHeaders() {
 		HttpHeaders responseHeaders = new HttpHeaders();
 		responseHeaders.set("Cache-Control", "no-cache");
@@ -66,17 +167,31 @@ public class PortfolioController {
 	 * Adds an order to the portfolio of the given user.
 	 *
 	 * @param order The order to add.
-	 * @return The order with HTTP CREATED or BAD REQUEST if it couldn't save.
+	 * @param idempotencyKey Identifies the submission, a retry with the same key returns the order saved by the first.
+	 * @return The order with HTTP CREATED or BAD REQUEST if it couldn't save, CONFLICT if another submission with the key is in progress.
 	 */
 	@PreAuthorize("hasAuthority('ROLE_TRADE')")
 	@RequestMapping(value = "/portfolio", method = RequestMethod.POST)
 	public ResponseEntity<Order> addOrder(@RequestBody final Order order,
-										  @AuthenticationPrincipal JwtAuthenticationToken token) {
+										  @AuthenticationPrincipal JwtAuthenticationToken token,
+										  @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
 		logger.debug("Adding Order: " + order);
+		if (idempotencyKey != null && (idempotencyKey.isEmpty() || idempotencyKey.length() > IdempotentOrderService.MAX_KEY_LENGTH)) {
+			logger.warn("Invalid " + IDEMPOTENCY_KEY + ": " + idempotencyKey);
+			return new ResponseEntity<Order>(getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
 		
 		//TODO: can do a test to ensure userId == order.getUserId();
-		order.setUserId(token.getName());
-		Order savedOrder = service.addOrder(order, token.getToken().getTokenValue());
+		order.setUserId(AuthenticatedUser.getUserId(token));
+		Order savedOrder;
+		try {
+			savedOrder = idempotencyKey == null
+					? service.addOrder(order, token.getToken().getTokenValue())
+					: idempotentService.addOrder(order, token.getToken().getTokenValue(), idempotencyKey);
+		} catch (IdempotencyConflictException e) {
+			logger.warn("PortfolioController: " + e.getMessage());
+			return new ResponseEntity<Order>(getNoCacheHeaders(), HttpStatus.CONFLICT);
+		}
 
 		logger.debug("Order added: " + savedOrder);
 		if (savedOrder != null && savedOrder.getOrderId() != null) {
@@ -86,4 +201,24 @@ public class PortfolioController {
 			return new ResponseEntity<Order>(savedOrder, getNoCacheHeaders(), HttpStatus.INTERNAL_SERVER_ERROR);
 		}
 	}
+
+	/**
+	 * Adds a batch of orders to the portfolio of the given user.
+	 *
+	 * @param orders The orders to add.
+	 * @return The outcome of each order with HTTP OK, or BAD REQUEST if the batch is empty or too large.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_TRADE')")
+	@RequestMapping(value = "/portfolio/batch", method = RequestMethod.POST)
+	public ResponseEntity<List<OrderResult>> addOrders(@RequestBody final List<Order> orders,
+													   @AuthenticationPrincipal JwtAuthenticationToken token) {
+		if (orders.isEmpty() || orders.size() > maxBatchOrders) {
+			logger.warn("Order batch of " + orders.size() + " orders not accepted");
+			return new ResponseEntity<List<OrderResult>>(getNoCacheHeaders(), HttpStatus.BAD_REQUEST);
+		}
+		logger.debug("Adding batch of " + orders.size() + " orders");
+		List<OrderResult> results = service.addOrders(orders, AuthenticatedUser.getUserId(token), token.getToken().getTokenValue());
+		logger.debug("Order batch added: " + results);
+		return new ResponseEntity<List<OrderResult>>(results, getNoCacheHeaders(), HttpStatus.OK);
+	}
 }
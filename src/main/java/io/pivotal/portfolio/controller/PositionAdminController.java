@@ -0,0 +1,59 @@
+package io.pivotal.portfolio.controller;
+
+import java.util.Collections;
+import java.util.List;
+
+import io.pivotal.portfolio.domain.PositionRebuildResult;
+import io.pivotal.portfolio.service.PositionService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Provides the administrative REST API for the positions.
+ * 
+ * Provides the following endpoints:
+ * <p><ul>
+ * <li>POST <code>/admin/positions/rebuild</code> regenerates the positions of every user from the orders.
+ * <li>POST <code>/admin/positions/rebuild?userId={userId}</code> regenerates the positions of the given user.
+ * </ul><p>
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@RestController
+public class PositionAdminController {
+	private static final Logger logger = LoggerFactory
+			.getLogger(PositionAdminController.class);
+
+	/**
+	 * the service to delegate to.
+	 */
+	@Autowired
+	private PositionService service;
+
+	/**
+	 * Regenerates the positions from the orders, checking them against the
+	 * replayed holdings.
+	 * 
+	 * @param userId the user to rebuild, or all users if not given.
+	 * @return The rebuild result of each user with HTTP OK.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO_ADMIN')")
+	@RequestMapping(value = "/admin/positions/rebuild", method = RequestMethod.POST)
+	public ResponseEntity<List<PositionRebuildResult>> rebuild(@RequestParam(value = "userId", required = false) String userId) {
+		logger.info("Rebuilding positions for user: " + (userId == null ? "all" : userId));
+		List<PositionRebuildResult> results = userId == null
+				? service.rebuildAll()
+				: Collections.singletonList(service.rebuild(userId));
+		return new ResponseEntity<List<PositionRebuildResult>>(results, HttpStatus.OK);
+	}
+}
@@ -0,0 +1,65 @@
+package io.pivotal.portfolio.controller;
+
+import io.pivotal.portfolio.domain.Portfolio;
+import io.pivotal.portfolio.service.PortfolioService;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.prepost.PreAuthorize;
+import org.springframework.security.core.annotation.AuthenticationPrincipal;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Mono;
+
+/**
+ * Provides the non-blocking variant of the portfolio REST API, enabled with
+ * <code>pivotal.portfolio.reactive.enabled</code>.
+ * 
+ * Provides the following endpoints:
+ * <p><ul>
+ * <li>GET <code>/portfolio/reactive</code> retrieves the portfolio of the user without blocking the request thread.
+ * </ul><p>
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@RestController
+@ConditionalOnProperty(name = "pivotal.portfolio.reactive.enabled", havingValue = "true")
+public class ReactivePortfolioController {
+	private static final Logger logger = LoggerFactory
+			.getLogger(ReactivePortfolioController.class);
+
+	/**
+	 * the service to delegate to.
+	 */
+	@Autowired
+	private PortfolioService service;
+
+	/**
+	 * Retrieves the portfolio for the given account. The user is resolved on
+	 * the request thread, as the security context does not follow the
+	 * pipeline to other threads.
+	 * @return The portfolio with HTTP OK.
+	 */
+	@PreAuthorize("hasAuthority('ROLE_PORTFOLIO')")
+	@RequestMapping(value = "/portfolio/reactive", method = RequestMethod.GET)
+	public Mono<ResponseEntity<Portfolio>> getPortfolio(@AuthenticationPrincipal JwtAuthenticationToken token) {
+		String userId = AuthenticatedUser.getUserId(token);
+		logger.debug("ReactivePortfolioController: Retrieving portfolio with user id:" + userId);
+		return service.getPortfolioReactive(userId)
+				.map(folio -> new ResponseEntity<Portfolio>(folio, getNoCacheHeaders(), HttpStatus.OK));
+	}
+
+	private HttpHeaders getNoCacheHeaders() {
+		HttpHeaders responseHeaders = new HttpHeaders();
+		responseHeaders.set("Cache-Control", "no-cache");
+		return responseHeaders;
+	}
+}
@@ -0,0 +1,176 @@
+package io.pivotal.portfolio.domain;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Sum of monetary amounts, held as a <code>long</code> number of
+ * ten-thousandths while it fits.
+ *
+ * Adding a price whose units were computed beforehand allocates nothing, so
+ * {@link Order} computes the units of its price once, when the price is set
+ * or loaded. Adding a <code>BigDecimal</code> without its units computes them
+ * on each call, which allocates the unscaled <code>BigInteger</code>.
+ *
+ * The result is the same, value and scale, as adding the amounts to
+ * <code>BigDecimal.ZERO</code> one by one. Amounts with more than four
+ * decimals or a negative scale, and sums that would overflow, switch the
+ * accumulator to <code>BigDecimal</code> arithmetic for good.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+final class FixedPointAccumulator {
+
+	/**
+	 * The number of decimals of the units.
+	 */
+	static final int SCALE = 4;
+
+	private static final long[] POWERS = { 1L, 10L, 100L, 1000L, 10000L };
+
+	/**
+	 * The sum in ten-thousandths, while {@link #exact} is null.
+	 */
+	private long units;
+
+	/**
+	 * The scale of the sum, the largest scale of the amounts added.
+	 */
+	private int scale;
+
+	/**
+	 * The sum, once it cannot be held in units.
+	 */
+	private BigDecimal exact;
+
+	/**
+	 * The sum as last returned, until it changes.
+	 */
+	private BigDecimal value;
+
+	/**
+	 * Replaces the sum.
+	 *
+	 * @param amount
+	 *            the new sum, null for zero.
+	 */
+	void set(BigDecimal amount) {
+		units = 0;
+		scale = 0;
+		exact = null;
+		value = null;
+		if (amount == null) {
+			return;
+		}
+		long amountUnits = toUnits(amount);
+		if (amountUnits == Long.MIN_VALUE) {
+			exact = amount;
+		} else {
+			units = amountUnits;
+			scale = amount.scale();
+		}
+		value = amount;
+	}
+
+	/**
+	 * Adds an amount.
+	 *
+	 * @param amount
+	 *            the amount.
+	 */
+	void add(BigDecimal amount) {
+		addProduct(amount, 1);
+	}
+
+	/**
+	 * Adds the product of a price and a quantity.
+	 *
+	 * @param price
+	 *            the price.
+	 * @param quantity
+	 *            the quantity.
+	 */
+	void addProduct(BigDecimal price, long quantity) {
+		addProduct(price, toUnits(price), quantity);
+	}
+
+	/**
+	 * Adds the product of a price, whose units are known, and a quantity.
+	 *
+	 * @param price
+	 *            the price.
+	 * @param priceUnits
+	 *            the price in ten-thousandths, as computed by
+	 *            {@link #toUnits(BigDecimal)}.
+	 * @param quantity
+	 *            the quantity.
+	 */
+	void addProduct(BigDecimal price, long priceUnits, long quantity) {
+		value = null;
+		if (exact == null) {
+			if (priceUnits != Long.MIN_VALUE) {
+				try {
+					units = Math.addExact(units, Math.multiplyExact(priceUnits, quantity));
+					scale = Math.max(scale, price.scale());
+					return;
+				} catch (ArithmeticException e) {
+					// overflow, continue exactly.
+				}
+			}
+			exact = toBigDecimal();
+			value = null;
+		}
+		exact = exact.add(price.multiply(BigDecimal.valueOf(quantity)));
+	}
+
+	/**
+	 * Adds the sum of another accumulator.
+	 *
+	 * @param other
+	 *            the accumulator to add.
+	 */
+	void add(FixedPointAccumulator other) {
+		if (exact == null && other.exact == null) {
+			try {
+				units = Math.addExact(units, other.units);
+				scale = Math.max(scale, other.scale);
+				value = null;
+				return;
+			} catch (ArithmeticException e) {
+				// overflow, continue exactly.
+			}
+		}
+		add(other.toBigDecimal());
+	}
+
+	/**
+	 * @return the sum.
+	 */
+	BigDecimal toBigDecimal() {
+		if (value == null) {
+			value = exact != null ? exact : BigDecimal.valueOf(units / POWERS[SCALE - scale], scale);
+		}
+		return value;
+	}
+
+	/**
+	 * @return the amount in ten-thousandths, or <code>Long.MIN_VALUE</code>
+	 *         if it cannot be held in units.
+	 */
+	static long toUnits(BigDecimal amount) {
+		int amountScale = amount.scale();
+		if (amountScale < 0 || amountScale > SCALE) {
+			return Long.MIN_VALUE;
+		}
+		BigInteger unscaled = amount.unscaledValue();
+		if (unscaled.bitLength() > 62) {
+			return Long.MIN_VALUE;
+		}
+		try {
+			return Math.multiplyExact(unscaled.longValue(), POWERS[SCALE - amountScale]);
+		} catch (ArithmeticException e) {
+			return Long.MIN_VALUE;
+		}
+	}
+}
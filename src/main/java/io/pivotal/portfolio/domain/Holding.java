@@ -1,10 +1,10 @@
 package io.pivotal.portfolio.domain;
 
 import java.math.BigDecimal;
-import java.util.HashSet;
-import java.util.LinkedHashSet;
 import java.util.Set;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 /**
  * Represents a Holding.
  * 
@@ -19,10 +19,13 @@ public class Holding {
 	private String symbol;
 	private Integer quantity = 0;
 	private String currency;
-	private BigDecimal purchaseValue = BigDecimal.ZERO;
-	private BigDecimal sellValue = BigDecimal.ZERO;
-	private Set<Order> orders = new LinkedHashSet<>();
+	private final FixedPointAccumulator purchase = new FixedPointAccumulator();
+	private final FixedPointAccumulator sell = new FixedPointAccumulator();
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	private final OrderIndex orders = new OrderIndex();
 	private BigDecimal currentValue = BigDecimal.ZERO;
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private PriceStatus priceStatus;
 
 	public Integer getId() {
 		return id;
@@ -49,11 +52,15 @@ public class Holding {
 	}
 
 	public BigDecimal getPurchaseValue() {
-		return purchaseValue;
+		return purchase.toBigDecimal();
 	}
 
 	public void setPurchaseValue(BigDecimal purchaseValue) {
-		this.purchaseValue = purchaseValue;
+		purchase.set(purchaseValue);
+	}
+
+	FixedPointAccumulator getPurchase() {
+		return purchase;
 	}
 
 	public Set<Order> getOrders() {
@@ -61,7 +68,10 @@ public class Holding {
 	}
 
 	public void setOrders(Set<Order> orders) {
-		this.orders = orders;
+		this.orders.clear();
+		if (orders != null) {
+			this.orders.addAll(orders);
+		}
 	}
 
 	public BigDecimal getCurrentValue() {
@@ -72,29 +82,38 @@ public class Holding {
 		this.currentValue = currentValue;
 	}
 
+	public PriceStatus getPriceStatus() {
+		return priceStatus;
+	}
+
+	public void setPriceStatus(PriceStatus priceStatus) {
+		this.priceStatus = priceStatus;
+	}
+
 	public void addOrder(Order order) {
-		// check order is not already in.
-		if (orders.contains(order)) {
-			// TODO: throw RuntimeException?? and do nothing;
-		} else {
-			orders.add(order);
+		// an order already in, by order id, is ignored.
+		if (orders.add(order)) {
 			// update stats
 			if (order.getOrderType().equals(OrderType.BUY)) {
 				setQuantity(getQuantity() + order.getQuantity());
-				setPurchaseValue(getPurchaseValue().add(order.getPrice().multiply(new BigDecimal(order.getQuantity()))));
+				purchase.addProduct(order.getPrice(), order.getPriceUnits(), order.getQuantity());
 			} else if (order.getOrderType().equals(OrderType.SELL)) {
 				setQuantity(getQuantity() - order.getQuantity());
-				setSellValue(getSellValue().add(order.getPrice().multiply(new BigDecimal(order.getQuantity()))));
+				sell.addProduct(order.getPrice(), order.getPriceUnits(), order.getQuantity());
 			}
 		}
 	}
 
 	public BigDecimal getSellValue() {
-		return sellValue;
+		return sell.toBigDecimal();
 	}
 
 	public void setSellValue(BigDecimal sellPrice) {
-		this.sellValue = sellPrice;
+		sell.set(sellPrice);
+	}
+
+	FixedPointAccumulator getSell() {
+		return sell;
 	}
 
 	public String getCurrency() {
@@ -114,13 +133,11 @@ public class Holding {
 		result = prime * result
 				+ ((currentValue == null) ? 0 : currentValue.hashCode());
 		result = prime * result + ((id == null) ? 0 : id.hashCode());
-		result = prime * result + ((orders == null) ? 0 : orders.hashCode());
-		result = prime * result
-				+ ((purchaseValue == null) ? 0 : purchaseValue.hashCode());
+		result = prime * result + orders.hashCode();
+		result = prime * result + getPurchaseValue().hashCode();
 		result = prime * result
 				+ ((quantity == null) ? 0 : quantity.hashCode());
-		result = prime * result
-				+ ((sellValue == null) ? 0 : sellValue.hashCode());
+		result = prime * result + getSellValue().hashCode();
 		result = prime * result + ((symbol == null) ? 0 : symbol.hashCode());
 		return result;
 	}
@@ -149,25 +166,16 @@ public class Holding {
 				return false;
 		} else if (!id.equals(other.id))
 			return false;
-		if (orders == null) {
-			if (other.orders != null)
-				return false;
-		} else if (!orders.equals(other.orders))
+		if (!orders.equals(other.orders))
 			return false;
-		if (purchaseValue == null) {
-			if (other.purchaseValue != null)
-				return false;
-		} else if (!purchaseValue.equals(other.purchaseValue))
+		if (!getPurchaseValue().equals(other.getPurchaseValue()))
 			return false;
 		if (quantity == null) {
 			if (other.quantity != null)
 				return false;
 		} else if (!quantity.equals(other.quantity))
 			return false;
-		if (sellValue == null) {
-			if (other.sellValue != null)
-				return false;
-		} else if (!sellValue.equals(other.sellValue))
+		if (!getSellValue().equals(other.getSellValue()))
 			return false;
 		if (symbol == null) {
 			if (other.symbol != null)
@@ -183,10 +191,10 @@ public class Holding {
 		builder.append("Holding [id=").append(id).append(", symbol=")
 				.append(symbol).append(", quantity=").append(quantity)
 				.append(", currency=").append(currency)
-				.append(", purchaseValue=").append(purchaseValue)
-				.append(", sellValue=").append(sellValue).append(", orders=")
+				.append(", purchaseValue=").append(getPurchaseValue())
+				.append(", sellValue=").append(getSellValue()).append(", orders=")
 				.append(orders).append(", currentValue=").append(currentValue)
-				.append("]");
+				.append(", priceStatus=").append(priceStatus).append("]");
 		return builder.toString();
 	}
 
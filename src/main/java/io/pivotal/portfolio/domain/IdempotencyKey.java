@@ -0,0 +1,98 @@
+package io.pivotal.portfolio.domain;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Entity object representing the reservation of an idempotency key by the
+ * submission that places its order.
+ *
+ * It is committed before the accounts service is called, so that a single
+ * submission per user and key gets that far, whichever instance it runs on.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+@Entity
+@Table(name = "IDEMPOTENCY_KEYS", uniqueConstraints = @UniqueConstraint(name = "idempotency_keys_user_key", columnNames = {
+		"userid", "idempotencykey" }))
+public class IdempotencyKey {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "keyid")
+	private Integer keyId;
+
+	@Column(name = "userid")
+	@NotNull
+	private String userId;
+
+	@Column(name = "idempotencykey", length = 64)
+	@NotNull
+	private String idempotencyKey;
+
+	@Column(name = "reservedat")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date reservedAt = new Date();
+
+	public IdempotencyKey() {
+	}
+
+	public IdempotencyKey(String userId, String idempotencyKey) {
+		this.userId = userId;
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	public Integer getKeyId() {
+		return keyId;
+	}
+
+	public void setKeyId(Integer keyId) {
+		this.keyId = keyId;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
+	public Date getReservedAt() {
+		return reservedAt;
+	}
+
+	public void setReservedAt(Date reservedAt) {
+		this.reservedAt = reservedAt;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("IdempotencyKey [keyId=").append(keyId)
+				.append(", userId=").append(userId)
+				.append(", idempotencyKey=").append(idempotencyKey)
+				.append(", reservedAt=").append(reservedAt).append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,121 @@
+package io.pivotal.portfolio.domain;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Entity object representing the last price successfully fetched for a
+ * symbol, used to value holdings while the quote service is unavailable.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Entity
+@Table(name = "LAST_PRICES")
+public class LastPrice {
+
+	@Id
+	@Column(name = "symbol", length = 10)
+	private String symbol;
+
+	@Column(name = "name")
+	private String name;
+
+	@Column(name = "price", precision = 19, scale = 4)
+	@NotNull
+	private BigDecimal price;
+
+	@Column(name = "quotedat")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date quotedAt;
+
+	@Column(name = "updatedat")
+	@Temporal(TemporalType.TIMESTAMP)
+	@NotNull
+	private Date updatedAt;
+
+	public LastPrice() {
+	}
+
+	public LastPrice(Quote quote, Date updatedAt) {
+		this.symbol = quote.getSymbol();
+		this.name = quote.getName();
+		this.price = quote.getLastPrice();
+		this.quotedAt = quote.getTimestamp();
+		this.updatedAt = updatedAt;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public BigDecimal getPrice() {
+		return price;
+	}
+
+	public void setPrice(BigDecimal price) {
+		this.price = price;
+	}
+
+	public Date getQuotedAt() {
+		return quotedAt;
+	}
+
+	public void setQuotedAt(Date quotedAt) {
+		this.quotedAt = quotedAt;
+	}
+
+	public Date getUpdatedAt() {
+		return updatedAt;
+	}
+
+	public void setUpdatedAt(Date updatedAt) {
+		this.updatedAt = updatedAt;
+	}
+
+	/**
+	 * Creates a quote, in STALE state, from this price.
+	 * 
+	 * @return the quote.
+	 */
+	public Quote toQuote() {
+		Quote quote = new Quote();
+		quote.setSymbol(symbol);
+		quote.setName(name);
+		quote.setLastPrice(price);
+		quote.setTimestamp(quotedAt);
+		quote.setStatus(Quote.STATUS_STALE);
+		return quote;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("LastPrice [symbol=").append(symbol)
+				.append(", name=").append(name)
+				.append(", price=").append(price)
+				.append(", quotedAt=").append(quotedAt)
+				.append(", updatedAt=").append(updatedAt).append("]");
+		return builder.toString();
+	}
+}
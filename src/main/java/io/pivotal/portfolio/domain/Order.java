@@ -9,11 +9,17 @@ import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.PostLoad;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
+import javax.persistence.Transient;
+import javax.persistence.UniqueConstraint;
 import javax.validation.constraints.NotNull;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
 import org.springframework.format.annotation.DateTimeFormat;
 
 /**
@@ -23,7 +29,10 @@ import org.springframework.format.annotation.DateTimeFormat;
  *
  */
 @Entity
-@Table(name = "ORDERS")
+@Table(name = "ORDERS", indexes = {
+		@Index(name = "orders_user_history", columnList = "userid,completiondate,orderid"),
+		@Index(name = "orders_user_symbol_history", columnList = "userid,symbol,completiondate,orderid") },
+		uniqueConstraints = @UniqueConstraint(name = "orders_idempotency", columnNames = { "userid", "idempotencykey" }))
 public class Order {
 	public static BigDecimal DEFAULT_ORDER_FEE = new BigDecimal(10.50);
 
@@ -58,6 +67,22 @@ public class Order {
 	@Column(name = "tag")
 	private String tag;
 
+	@Column(name = "idempotencykey", length = 64)
+	@JsonIgnore
+	private String idempotencyKey;
+
+	/**
+	 * @return the key the client submitted the order with, to recognise its
+	 *         retries.
+	 */
+	public String getIdempotencyKey() {
+		return idempotencyKey;
+	}
+
+	public void setIdempotencyKey(String idempotencyKey) {
+		this.idempotencyKey = idempotencyKey;
+	}
+
 	@Column(name = "completiondate")
 	@Temporal(TemporalType.TIMESTAMP)
 	@DateTimeFormat(style = "LL")
@@ -72,6 +97,13 @@ public class Order {
 	@NotNull
 	private BigDecimal price;
 
+	/**
+	 * The price in the units of {@link FixedPointAccumulator}, computed once
+	 * when the price is set or loaded.
+	 */
+	@Transient
+	private long priceUnits = Long.MIN_VALUE;
+
 	@Column(name = "quantity")
 	@NotNull
 	private Integer quantity;
@@ -134,6 +166,20 @@ public class Order {
 
 	public void setPrice(BigDecimal price) {
 		this.price = price;
+		cachePriceUnits();
+	}
+
+	/**
+	 * @return the price in ten-thousandths, or <code>Long.MIN_VALUE</code> if
+	 *         it cannot be held in units.
+	 */
+	long getPriceUnits() {
+		return priceUnits;
+	}
+
+	@PostLoad
+	void cachePriceUnits() {
+		priceUnits = price == null ? Long.MIN_VALUE : FixedPointAccumulator.toUnits(price);
 	}
 
 	public Integer getQuantity() {
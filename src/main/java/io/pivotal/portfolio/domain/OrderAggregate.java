@@ -0,0 +1,79 @@
+package io.pivotal.portfolio.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Projection of the orders of a user for one symbol, currency and order type,
+ * aggregated by the database.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderAggregate {
+
+	private final String symbol;
+	private final String currency;
+	private final OrderType orderType;
+	private final long quantity;
+	private final BigDecimal value;
+	private final long orderCount;
+	private final Integer lastOrderId;
+
+	public OrderAggregate(String symbol, String currency, OrderType orderType, Long quantity, BigDecimal value,
+			Long orderCount, Integer lastOrderId) {
+		this.symbol = symbol;
+		this.currency = currency;
+		this.orderType = orderType;
+		this.quantity = quantity == null ? 0 : quantity;
+		this.value = value == null ? BigDecimal.ZERO : value;
+		this.orderCount = orderCount == null ? 0 : orderCount;
+		this.lastOrderId = lastOrderId;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public OrderType getOrderType() {
+		return orderType;
+	}
+
+	/**
+	 * @return the summed quantity of the orders.
+	 */
+	public long getQuantity() {
+		return quantity;
+	}
+
+	/**
+	 * @return the summed price times quantity of the orders.
+	 */
+	public BigDecimal getValue() {
+		return value;
+	}
+
+	public long getOrderCount() {
+		return orderCount;
+	}
+
+	public Integer getLastOrderId() {
+		return lastOrderId;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OrderAggregate [symbol=").append(symbol)
+				.append(", currency=").append(currency)
+				.append(", orderType=").append(orderType)
+				.append(", quantity=").append(quantity).append(", value=")
+				.append(value).append(", orderCount=").append(orderCount)
+				.append(", lastOrderId=").append(lastOrderId).append("]");
+		return builder.toString();
+	}
+
+}
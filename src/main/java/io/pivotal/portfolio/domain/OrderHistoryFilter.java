@@ -0,0 +1,88 @@
+package io.pivotal.portfolio.domain;
+
+import java.util.Date;
+
+/**
+ * The criteria to select the order history of a user by.
+ * 
+ * Only the user id is required, every other criteria is ignored when not
+ * set.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderHistoryFilter {
+
+	private String userId;
+	private String symbol;
+	private OrderType orderType;
+	private Date from;
+	private Date to;
+	private String tag;
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public OrderType getOrderType() {
+		return orderType;
+	}
+
+	public void setOrderType(OrderType orderType) {
+		this.orderType = orderType;
+	}
+
+	/**
+	 * @return the earliest completion date, inclusive.
+	 */
+	public Date getFrom() {
+		return from;
+	}
+
+	public void setFrom(Date from) {
+		this.from = from;
+	}
+
+	/**
+	 * @return the latest completion date, exclusive.
+	 */
+	public Date getTo() {
+		return to;
+	}
+
+	public void setTo(Date to) {
+		this.to = to;
+	}
+
+	public String getTag() {
+		return tag;
+	}
+
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OrderHistoryFilter [userId=").append(userId)
+				.append(", symbol=").append(symbol)
+				.append(", orderType=").append(orderType)
+				.append(", from=").append(from).append(", to=").append(to)
+				.append(", tag=").append(tag).append("]");
+		return builder.toString();
+	}
+
+}
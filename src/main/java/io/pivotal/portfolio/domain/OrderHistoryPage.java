@@ -0,0 +1,45 @@
+package io.pivotal.portfolio.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A page of the order history of a user, the most recent first.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderHistoryPage {
+
+	private List<Order> orders = new ArrayList<>();
+	private String nextCursor;
+
+	public List<Order> getOrders() {
+		return orders;
+	}
+
+	public void setOrders(List<Order> orders) {
+		this.orders = orders;
+	}
+
+	/**
+	 * @return the cursor to retrieve the next page with, or null on the last
+	 *         page.
+	 */
+	public String getNextCursor() {
+		return nextCursor;
+	}
+
+	public void setNextCursor(String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OrderHistoryPage [orders=").append(orders.size())
+				.append(", nextCursor=").append(nextCursor).append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,181 @@
+package io.pivotal.portfolio.domain;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and outcome of a bulk import of historical orders.
+ * 
+ * The counters are updated by the importing thread and may be read while the
+ * import is running.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderImportJob {
+
+	private static final int MAX_ERRORS = 100;
+
+	public enum Status {
+		RUNNING, REBUILDING, COMPLETED, COMPLETED_WITH_ERRORS, FAILED
+	}
+
+	private final String jobId;
+	private final Date startedAt = new Date();
+	private volatile Date finishedAt;
+	private volatile Status status = Status.RUNNING;
+	private volatile String failure;
+	private final AtomicLong read = new AtomicLong();
+	private final AtomicLong imported = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong users = new AtomicLong();
+	private final AtomicLong notRebuilt = new AtomicLong();
+	private final List<String> errors = Collections.synchronizedList(new ArrayList<>());
+
+	public OrderImportJob(String jobId) {
+		this.jobId = jobId;
+	}
+
+	public String getJobId() {
+		return jobId;
+	}
+
+	public Date getStartedAt() {
+		return startedAt;
+	}
+
+	public Date getFinishedAt() {
+		return finishedAt;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+		if (isFinished()) {
+			this.finishedAt = new Date();
+		}
+	}
+
+	/**
+	 * @return why the import failed, if it did.
+	 */
+	public String getFailure() {
+		return failure;
+	}
+
+	public void fail(String failure) {
+		this.failure = failure;
+		setStatus(Status.FAILED);
+	}
+
+	/**
+	 * @return the number of order lines read.
+	 */
+	public long getRead() {
+		return read.get();
+	}
+
+	public void incrementRead() {
+		read.incrementAndGet();
+	}
+
+	/**
+	 * @return the number of orders inserted.
+	 */
+	public long getImported() {
+		return imported.get();
+	}
+
+	public void addImported(long count) {
+		imported.addAndGet(count);
+	}
+
+	/**
+	 * @return the number of order lines that did not validate.
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * Records an order line that did not validate.
+	 * 
+	 * @param line
+	 *            the line number.
+	 * @param error
+	 *            why the line was rejected.
+	 */
+	public void reject(long line, String error) {
+		rejected.incrementAndGet();
+		addError("line " + line + ": " + error);
+	}
+
+	/**
+	 * @return the number of users whose positions were not rebuilt after the
+	 *         import.
+	 */
+	public long getNotRebuilt() {
+		return notRebuilt.get();
+	}
+
+	/**
+	 * Records a user whose positions were not rebuilt after the import.
+	 * 
+	 * @param userId
+	 *            the user.
+	 * @param error
+	 *            why the positions were not rebuilt.
+	 */
+	public void rebuildFailed(String userId, String error) {
+		notRebuilt.incrementAndGet();
+		addError("user " + userId + ": " + error);
+	}
+
+	private void addError(String error) {
+		// only the first errors are kept.
+		if (errors.size() < MAX_ERRORS) {
+			errors.add(error);
+		}
+	}
+
+	public List<String> getErrors() {
+		synchronized (errors) {
+			return new ArrayList<>(errors);
+		}
+	}
+
+	/**
+	 * @return the number of users whose positions were rebuilt.
+	 */
+	public long getUsers() {
+		return users.get();
+	}
+
+	public void setUsers(long users) {
+		this.users.set(users);
+	}
+
+	public boolean isFinished() {
+		return status == Status.COMPLETED || status == Status.COMPLETED_WITH_ERRORS || status == Status.FAILED;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OrderImportJob [jobId=").append(jobId)
+				.append(", status=").append(status).append(", read=")
+				.append(read).append(", imported=").append(imported)
+				.append(", rejected=").append(rejected).append(", users=")
+				.append(users).append(", notRebuilt=")
+				.append(notRebuilt).append(", failure=").append(failure)
+				.append("]");
+		return builder.toString();
+	}
+
+}
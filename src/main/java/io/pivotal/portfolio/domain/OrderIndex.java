@@ -0,0 +1,173 @@
+package io.pivotal.portfolio.domain;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The orders of a holding, in insertion order, keyed by order id.
+ *
+ * The orders and their ids are kept in parallel arrays, and an open
+ * addressing table of <code>int</code> positions finds an order by id
+ * without hashing the order itself. An order is a duplicate, for both
+ * {@link #add(Order)} and {@link #contains(Object)}, when an order with the
+ * same id is already in, whatever its other fields. Orders without an id are
+ * not in the table and are compared with <code>equals</code>.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+final class OrderIndex extends AbstractSet<Order> {
+
+	private static final int INITIAL_CAPACITY = 4;
+
+	/**
+	 * The orders, in insertion order.
+	 */
+	private Order[] orders;
+
+	/**
+	 * The ids of the orders as they were added.
+	 */
+	private int[] ids;
+
+	/**
+	 * The position plus one of the order of each keyed slot, 0 when free.
+	 * Twice as long as {@link #orders}, so at most half full.
+	 */
+	private int[] slots;
+
+	private int size;
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		if (!(o instanceof Order)) {
+			return false;
+		}
+		Order order = (Order) o;
+		Integer orderId = order.getOrderId();
+		if (orderId == null) {
+			return indexOf(order) >= 0;
+		}
+		// by id alone, as add rejects it.
+		return find(orderId) >= 0;
+	}
+
+	@Override
+	public boolean add(Order order) {
+		Integer orderId = order.getOrderId();
+		if (orderId == null ? indexOf(order) >= 0 : find(orderId) >= 0) {
+			return false;
+		}
+		ensureCapacity();
+		orders[size] = order;
+		if (orderId != null) {
+			ids[size] = orderId;
+			insert(slots, orderId, size);
+		}
+		size++;
+		return true;
+	}
+
+	@Override
+	public void clear() {
+		orders = null;
+		ids = null;
+		slots = null;
+		size = 0;
+	}
+
+	@Override
+	public Iterator<Order> iterator() {
+		return new Iterator<Order>() {
+
+			private int next;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			public Order next() {
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				return orders[next++];
+			}
+		};
+	}
+
+	/**
+	 * @return the position of the order with this id, or -1.
+	 */
+	private int find(int orderId) {
+		if (slots == null) {
+			return -1;
+		}
+		int mask = slots.length - 1;
+		for (int slot = hash(orderId) & mask;; slot = (slot + 1) & mask) {
+			int entry = slots[slot];
+			if (entry == 0) {
+				return -1;
+			}
+			if (ids[entry - 1] == orderId) {
+				return entry - 1;
+			}
+		}
+	}
+
+	/**
+	 * @return the position of an order equal to this one, or -1.
+	 */
+	private int indexOf(Order order) {
+		for (int i = 0; i < size; i++) {
+			if (order.equals(orders[i])) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private void ensureCapacity() {
+		if (orders == null) {
+			orders = new Order[INITIAL_CAPACITY];
+			ids = new int[INITIAL_CAPACITY];
+			slots = new int[INITIAL_CAPACITY * 2];
+		} else if (size == orders.length) {
+			int capacity = size * 2;
+			Order[] grownOrders = new Order[capacity];
+			int[] grownIds = new int[capacity];
+			int[] grownSlots = new int[capacity * 2];
+			System.arraycopy(orders, 0, grownOrders, 0, size);
+			System.arraycopy(ids, 0, grownIds, 0, size);
+			for (int entry : slots) {
+				if (entry != 0) {
+					insert(grownSlots, ids[entry - 1], entry - 1);
+				}
+			}
+			orders = grownOrders;
+			ids = grownIds;
+			slots = grownSlots;
+		}
+	}
+
+	private static void insert(int[] table, int orderId, int position) {
+		int mask = table.length - 1;
+		int slot = hash(orderId) & mask;
+		while (table[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot] = position + 1;
+	}
+
+	private static int hash(int orderId) {
+		int h = orderId * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
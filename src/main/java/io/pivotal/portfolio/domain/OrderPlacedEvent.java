@@ -0,0 +1,126 @@
+package io.pivotal.portfolio.domain;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Event published once an order has been committed, carrying only what
+ * consumers need to react to the trade.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderPlacedEvent {
+
+	private Integer orderId;
+	private String userId;
+	private Integer accountId;
+	private String symbol;
+	private OrderType orderType;
+	private Integer quantity;
+	private BigDecimal price;
+	private String currency;
+	private Date completionDate;
+
+	public OrderPlacedEvent() {
+	}
+
+	public OrderPlacedEvent(Order order) {
+		this.orderId = order.getOrderId();
+		this.userId = order.getUserId();
+		this.accountId = order.getAccountId();
+		this.symbol = order.getSymbol();
+		this.orderType = order.getOrderType();
+		this.quantity = order.getQuantity();
+		this.price = order.getPrice();
+		this.currency = order.getCurrency();
+		this.completionDate = order.getCompletionDate();
+	}
+
+	public Integer getOrderId() {
+		return orderId;
+	}
+
+	public void setOrderId(Integer orderId) {
+		this.orderId = orderId;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public Integer getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(Integer accountId) {
+		this.accountId = accountId;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public OrderType getOrderType() {
+		return orderType;
+	}
+
+	public void setOrderType(OrderType orderType) {
+		this.orderType = orderType;
+	}
+
+	public Integer getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(Integer quantity) {
+		this.quantity = quantity;
+	}
+
+	public BigDecimal getPrice() {
+		return price;
+	}
+
+	public void setPrice(BigDecimal price) {
+		this.price = price;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public Date getCompletionDate() {
+		return completionDate;
+	}
+
+	public void setCompletionDate(Date completionDate) {
+		this.completionDate = completionDate;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OrderPlacedEvent [orderId=").append(orderId)
+				.append(", userId=").append(userId).append(", accountId=")
+				.append(accountId).append(", symbol=").append(symbol)
+				.append(", orderType=").append(orderType)
+				.append(", quantity=").append(quantity).append(", price=")
+				.append(price).append(", currency=").append(currency)
+				.append(", completionDate=").append(completionDate)
+				.append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,80 @@
+package io.pivotal.portfolio.domain;
+
+/**
+ * Outcome of one order of a batch submission.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderResult {
+
+	public enum Status {
+		/** the order was saved. */
+		CREATED,
+		/** the order did not validate, nothing was done for it. */
+		REJECTED,
+		/** the account transaction of the order was not accepted. */
+		FAILED
+	}
+
+	private int index;
+	private Status status;
+	private Order order;
+	private String message;
+
+	public OrderResult() {
+	}
+
+	public OrderResult(int index, Status status, Order order, String message) {
+		this.index = index;
+		this.status = status;
+		this.order = order;
+		this.message = message;
+	}
+
+	/**
+	 * @return the position of the order in the submitted batch.
+	 */
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public Order getOrder() {
+		return order;
+	}
+
+	public void setOrder(Order order) {
+		this.order = order;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OrderResult [index=").append(index)
+				.append(", status=").append(status).append(", order=")
+				.append(order).append(", message=").append(message)
+				.append("]");
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,280 @@
+package io.pivotal.portfolio.domain;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.CollectionTable;
+import javax.persistence.Column;
+import javax.persistence.ElementCollection;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.FetchType;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Entity object representing an account transaction waiting to be delivered
+ * to the accounts service.
+ * 
+ * It is written in the same database transaction as the orders it settles,
+ * and delivered once that transaction has committed. The orders are
+ * cancelled if the accounts service declines it.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Entity
+@Table(name = "TRANSACTION_OUTBOX", indexes = @Index(name = "outbox_due", columnList = "status,nextattemptat"))
+public class OutboxTransaction {
+
+	private static final int MAX_TEXT = 1024;
+
+	public enum Status {
+		PENDING, DISPATCHING, DONE, DECLINED, FAILED
+	}
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "outboxid")
+	private Integer outboxId;
+
+	@ElementCollection(fetch = FetchType.EAGER)
+	@CollectionTable(name = "TRANSACTION_OUTBOX_ORDERS", joinColumns = @JoinColumn(name = "outboxid"))
+	@Column(name = "orderid")
+	private List<Integer> orderIds = new ArrayList<>();
+
+	@Column(name = "accountid")
+	@NotNull
+	private Integer accountId;
+
+	@Column(name = "amount", precision = 19, scale = 2)
+	@NotNull
+	private BigDecimal amount;
+
+	@Column(name = "currency", length = 3)
+	private String currency;
+
+	@Column(name = "type")
+	@NotNull
+	@Enumerated
+	private TransactionType type;
+
+	@Column(name = "description", length = MAX_TEXT)
+	private String description;
+
+	@Column(name = "transactiondate")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date transactionDate;
+
+	@Column(name = "status", length = 12)
+	@NotNull
+	@Enumerated(EnumType.STRING)
+	private Status status = Status.PENDING;
+
+	@Column(name = "attempts")
+	@NotNull
+	private Integer attempts = 0;
+
+	@Column(name = "createdat")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date createdAt = new Date();
+
+	@Column(name = "nextattemptat")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date nextAttemptAt = createdAt;
+
+	@Column(name = "claimedat")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date claimedAt;
+
+	@Column(name = "dispatchedat")
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date dispatchedAt;
+
+	@Column(name = "lasterror", length = MAX_TEXT)
+	private String lastError;
+
+	public OutboxTransaction() {
+	}
+
+	/**
+	 * @param transaction
+	 *            the transaction to deliver.
+	 * @param orderIds
+	 *            the orders it settles.
+	 */
+	public OutboxTransaction(Transaction transaction, Collection<Integer> orderIds) {
+		this.orderIds.addAll(orderIds);
+		this.accountId = transaction.getAccountId();
+		this.amount = transaction.getAmount();
+		this.currency = transaction.getCurrency();
+		this.type = transaction.getType();
+		this.description = truncate(transaction.getDescription());
+		this.transactionDate = transaction.getDate();
+	}
+
+	/**
+	 * @return the transaction to post to the accounts service.
+	 */
+	public Transaction toTransaction() {
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(accountId);
+		transaction.setAmount(amount);
+		transaction.setCurrency(currency);
+		transaction.setType(type);
+		transaction.setDescription(description);
+		transaction.setDate(transactionDate);
+		return transaction;
+	}
+
+	private static String truncate(String text) {
+		return text == null || text.length() <= MAX_TEXT ? text : text.substring(0, MAX_TEXT);
+	}
+
+	public Integer getOutboxId() {
+		return outboxId;
+	}
+
+	public void setOutboxId(Integer outboxId) {
+		this.outboxId = outboxId;
+	}
+
+	public List<Integer> getOrderIds() {
+		return orderIds;
+	}
+
+	public void setOrderIds(List<Integer> orderIds) {
+		this.orderIds = orderIds;
+	}
+
+	public Integer getAccountId() {
+		return accountId;
+	}
+
+	public void setAccountId(Integer accountId) {
+		this.accountId = accountId;
+	}
+
+	public BigDecimal getAmount() {
+		return amount;
+	}
+
+	public void setAmount(BigDecimal amount) {
+		this.amount = amount;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public TransactionType getType() {
+		return type;
+	}
+
+	public void setType(TransactionType type) {
+		this.type = type;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public Date getTransactionDate() {
+		return transactionDate;
+	}
+
+	public void setTransactionDate(Date transactionDate) {
+		this.transactionDate = transactionDate;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public void setStatus(Status status) {
+		this.status = status;
+	}
+
+	public Integer getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(Integer attempts) {
+		this.attempts = attempts;
+	}
+
+	public Date getCreatedAt() {
+		return createdAt;
+	}
+
+	public void setCreatedAt(Date createdAt) {
+		this.createdAt = createdAt;
+	}
+
+	public Date getNextAttemptAt() {
+		return nextAttemptAt;
+	}
+
+	public void setNextAttemptAt(Date nextAttemptAt) {
+		this.nextAttemptAt = nextAttemptAt;
+	}
+
+	public Date getClaimedAt() {
+		return claimedAt;
+	}
+
+	public void setClaimedAt(Date claimedAt) {
+		this.claimedAt = claimedAt;
+	}
+
+	public Date getDispatchedAt() {
+		return dispatchedAt;
+	}
+
+	public void setDispatchedAt(Date dispatchedAt) {
+		this.dispatchedAt = dispatchedAt;
+	}
+
+	public String getLastError() {
+		return lastError;
+	}
+
+	public void setLastError(String lastError) {
+		this.lastError = truncate(lastError);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("OutboxTransaction [outboxId=").append(outboxId)
+				.append(", orderIds=").append(orderIds)
+				.append(", accountId=").append(accountId)
+				.append(", amount=").append(amount).append(", currency=")
+				.append(currency).append(", type=").append(type)
+				.append(", status=").append(status).append(", attempts=")
+				.append(attempts).append(", nextAttemptAt=")
+				.append(nextAttemptAt).append(", lastError=")
+				.append(lastError).append("]");
+		return builder.toString();
+	}
+
+}
@@ -53,6 +53,24 @@ public class Portfolio {
 		return holdings.get(symbol);
 	}
 
+	/**
+	 * Adds the order to the holding of its symbol, creating the holding if
+	 * this is the first order for that symbol.
+	 * 
+	 * @param order
+	 *            the order to add.
+	 */
+	public void addOrder(Order order) {
+		Holding holding = getHolding(order.getSymbol());
+		if (holding == null) {
+			holding = new Holding();
+			holding.setSymbol(order.getSymbol());
+			holding.setCurrency(order.getCurrency());
+			addHolding(holding);
+		}
+		holding.addOrder(order);
+	}
+
 	public BigDecimal getCurrentTotalValue() {
 		return currentTotalValue;
 	}
@@ -65,14 +83,17 @@ public class Portfolio {
 	 * Iterates through each of the holdings aggregating the values.
 	 */
 	public void refreshTotalValue() {
-		this.currentTotalValue = BigDecimal.ZERO;
-		this.purchaseValue = BigDecimal.ZERO;
-		this.sellValue = BigDecimal.ZERO;
-		holdings.values().forEach(holding -> {
-			this.currentTotalValue = this.currentTotalValue.add(holding.getCurrentValue().multiply(new BigDecimal(holding.getQuantity())));
-			this.purchaseValue = this.purchaseValue.add(holding.getPurchaseValue());
-			this.sellValue = this.sellValue.add(holding.getSellValue());
-		});
+		FixedPointAccumulator current = new FixedPointAccumulator();
+		FixedPointAccumulator purchase = new FixedPointAccumulator();
+		FixedPointAccumulator sell = new FixedPointAccumulator();
+		for (Holding holding : holdings.values()) {
+			current.addProduct(holding.getCurrentValue(), holding.getQuantity());
+			purchase.add(holding.getPurchase());
+			sell.add(holding.getSell());
+		}
+		this.currentTotalValue = current.toBigDecimal();
+		this.purchaseValue = purchase.toBigDecimal();
+		this.sellValue = sell.toBigDecimal();
 	}
 
 	public BigDecimal getSellValue() {
@@ -0,0 +1,240 @@
+package io.pivotal.portfolio.domain;
+
+import java.math.BigDecimal;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Entity object representing the projection of a user's orders for one symbol.
+ *
+ * Positions are maintained incrementally as orders are added, so that a
+ * portfolio can be read without replaying the whole order history.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+@Entity
+@Table(name = "POSITIONS", uniqueConstraints = @UniqueConstraint(columnNames = { "userid", "symbol" }))
+public class Position {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@Column(name = "positionid")
+	private Integer positionId;
+
+	@Column(name = "userid")
+	@NotNull
+	private String userId;
+
+	@Column(name = "symbol", length = 10)
+	@NotNull
+	private String symbol;
+
+	@Column(name = "currency", length = 3)
+	private String currency;
+
+	@Column(name = "quantity")
+	@NotNull
+	private Integer quantity = 0;
+
+	@Column(name = "purchasevalue", precision = 19, scale = 2)
+	@NotNull
+	private BigDecimal purchaseValue = BigDecimal.ZERO;
+
+	@Column(name = "sellvalue", precision = 19, scale = 2)
+	@NotNull
+	private BigDecimal sellValue = BigDecimal.ZERO;
+
+	@Column(name = "lastorderid")
+	private Integer lastOrderId;
+
+	@Column(name = "ordercount")
+	@NotNull
+	private Integer orderCount = 0;
+
+	public Integer getPositionId() {
+		return positionId;
+	}
+
+	public void setPositionId(Integer positionId) {
+		this.positionId = positionId;
+	}
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public String getSymbol() {
+		return symbol;
+	}
+
+	public void setSymbol(String symbol) {
+		this.symbol = symbol;
+	}
+
+	public String getCurrency() {
+		return currency;
+	}
+
+	public void setCurrency(String currency) {
+		this.currency = currency;
+	}
+
+	public Integer getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(Integer quantity) {
+		this.quantity = quantity;
+	}
+
+	public BigDecimal getPurchaseValue() {
+		return purchaseValue;
+	}
+
+	public void setPurchaseValue(BigDecimal purchaseValue) {
+		this.purchaseValue = purchaseValue;
+	}
+
+	public BigDecimal getSellValue() {
+		return sellValue;
+	}
+
+	public void setSellValue(BigDecimal sellValue) {
+		this.sellValue = sellValue;
+	}
+
+	public Integer getLastOrderId() {
+		return lastOrderId;
+	}
+
+	public void setLastOrderId(Integer lastOrderId) {
+		this.lastOrderId = lastOrderId;
+	}
+
+	public Integer getOrderCount() {
+		return orderCount;
+	}
+
+	public void setOrderCount(Integer orderCount) {
+		this.orderCount = orderCount;
+	}
+
+	/**
+	 * Applies the order to this position, in the same way
+	 * {@link Holding#addOrder(Order)} does. The order is applied once, in the
+	 * transaction that inserts it.
+	 *
+	 * @param order
+	 *            the order to apply.
+	 */
+	public void apply(Order order) {
+		if (order.getOrderType().equals(OrderType.BUY)) {
+			setQuantity(getQuantity() + order.getQuantity());
+			setPurchaseValue(getPurchaseValue().add(order.getPrice().multiply(new BigDecimal(order.getQuantity()))));
+		} else if (order.getOrderType().equals(OrderType.SELL)) {
+			setQuantity(getQuantity() - order.getQuantity());
+			setSellValue(getSellValue().add(order.getPrice().multiply(new BigDecimal(order.getQuantity()))));
+		}
+		if (order.getOrderId() != null && (lastOrderId == null || order.getOrderId() > lastOrderId)) {
+			setLastOrderId(order.getOrderId());
+		}
+		setOrderCount(getOrderCount() + 1);
+	}
+
+	/**
+	 * Takes an order applied to this position back out of it, when the order
+	 * is cancelled. The last order id is left as it is.
+	 *
+	 * @param order
+	 *            the order to revert.
+	 */
+	public void revert(Order order) {
+		if (order.getOrderType().equals(OrderType.BUY)) {
+			setQuantity(getQuantity() - order.getQuantity());
+			setPurchaseValue(getPurchaseValue().subtract(order.getPrice().multiply(new BigDecimal(order.getQuantity()))));
+		} else if (order.getOrderType().equals(OrderType.SELL)) {
+			setQuantity(getQuantity() + order.getQuantity());
+			setSellValue(getSellValue().subtract(order.getPrice().multiply(new BigDecimal(order.getQuantity()))));
+		}
+		setOrderCount(getOrderCount() - 1);
+	}
+
+	/**
+	 * Applies orders aggregated by the database to this position.
+	 *
+	 * @param aggregate
+	 *            the aggregated orders of one type.
+	 */
+	public void apply(OrderAggregate aggregate) {
+		int quantity = Math.toIntExact(aggregate.getQuantity());
+		if (aggregate.getOrderType().equals(OrderType.BUY)) {
+			setQuantity(getQuantity() + quantity);
+			setPurchaseValue(getPurchaseValue().add(aggregate.getValue()));
+		} else if (aggregate.getOrderType().equals(OrderType.SELL)) {
+			setQuantity(getQuantity() - quantity);
+			setSellValue(getSellValue().add(aggregate.getValue()));
+		}
+		if (aggregate.getLastOrderId() != null
+				&& (lastOrderId == null || aggregate.getLastOrderId() > lastOrderId)) {
+			setLastOrderId(aggregate.getLastOrderId());
+		}
+		setOrderCount(getOrderCount() + Math.toIntExact(aggregate.getOrderCount()));
+	}
+
+	/**
+	 * Creates a holding, without orders, from this position.
+	 *
+	 * @return the holding.
+	 */
+	public Holding toHolding() {
+		Holding holding = new Holding();
+		holding.setId(positionId);
+		holding.setSymbol(symbol);
+		holding.setCurrency(currency);
+		holding.setQuantity(quantity);
+		holding.setPurchaseValue(purchaseValue);
+		holding.setSellValue(sellValue);
+		return holding;
+	}
+
+	/**
+	 * Whether this position holds the same figures as the given holding.
+	 *
+	 * @param holding
+	 *            the holding to compare against.
+	 * @return true if quantity, purchase and sell values match.
+	 */
+	public boolean matches(Holding holding) {
+		return holding != null
+				&& quantity.equals(holding.getQuantity())
+				&& purchaseValue.compareTo(holding.getPurchaseValue()) == 0
+				&& sellValue.compareTo(holding.getSellValue()) == 0;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Position [positionId=").append(positionId)
+				.append(", userId=").append(userId).append(", symbol=")
+				.append(symbol).append(", currency=").append(currency)
+				.append(", quantity=").append(quantity)
+				.append(", purchaseValue=").append(purchaseValue)
+				.append(", sellValue=").append(sellValue)
+				.append(", lastOrderId=").append(lastOrderId)
+				.append(", orderCount=").append(orderCount).append("]");
+		return builder.toString();
+	}
+
+}
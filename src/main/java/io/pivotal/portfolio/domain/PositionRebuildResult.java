@@ -0,0 +1,88 @@
+package io.pivotal.portfolio.domain;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Outcome of regenerating the positions of one user from the orders.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class PositionRebuildResult {
+
+	private String userId;
+	private int orders;
+	private int positions;
+	private Set<String> drifted = new TreeSet<>();
+	private Set<String> mismatched = new TreeSet<>();
+	private boolean applied;
+
+	public String getUserId() {
+		return userId;
+	}
+
+	public void setUserId(String userId) {
+		this.userId = userId;
+	}
+
+	public int getOrders() {
+		return orders;
+	}
+
+	public void setOrders(int orders) {
+		this.orders = orders;
+	}
+
+	public int getPositions() {
+		return positions;
+	}
+
+	public void setPositions(int positions) {
+		this.positions = positions;
+	}
+
+	/**
+	 * @return the symbols whose stored position differed from the regenerated
+	 *         one.
+	 */
+	public Set<String> getDrifted() {
+		return drifted;
+	}
+
+	public void setDrifted(Set<String> drifted) {
+		this.drifted = drifted;
+	}
+
+	/**
+	 * @return the symbols whose regenerated position did not match the
+	 *         holding built by replaying the orders.
+	 */
+	public Set<String> getMismatched() {
+		return mismatched;
+	}
+
+	public void setMismatched(Set<String> mismatched) {
+		this.mismatched = mismatched;
+	}
+
+	public boolean isApplied() {
+		return applied;
+	}
+
+	public void setApplied(boolean applied) {
+		this.applied = applied;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("PositionRebuildResult [userId=").append(userId)
+				.append(", orders=").append(orders).append(", positions=")
+				.append(positions).append(", drifted=").append(drifted)
+				.append(", mismatched=").append(mismatched)
+				.append(", applied=").append(applied).append("]");
+		return builder.toString();
+	}
+
+}
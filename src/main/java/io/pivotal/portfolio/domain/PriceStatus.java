@@ -0,0 +1,23 @@
+package io.pivotal.portfolio.domain;
+
+/**
+ * How current the price a holding is valued with is.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public enum PriceStatus {
+	/**
+	 * Valued with a price just fetched or streamed.
+	 */
+	CURRENT,
+	/**
+	 * Valued with the last known price, the quote service could not be
+	 * reached.
+	 */
+	STALE,
+	/**
+	 * No price is known, the holding is not valued.
+	 */
+	UNAVAILABLE
+}
@@ -18,6 +18,11 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class Quote {
 	public static final String STATUS_SUCCESS = "SUCCESS";
+	public static final String STATUS_FAILED = "FAILED";
+	/**
+	 * A last known price, served while the quote service is unavailable.
+	 */
+	public static final String STATUS_STALE = "STALE";
 	/*
 	 * { "Name":"Apple Inc", "Symbol":"AAPL", "LastPrice":524.49, "Change":15.6,
 	 * "ChangePercent":3.06549549018453,
@@ -0,0 +1,54 @@
+package io.pivotal.portfolio.repository;
+
+import java.util.Date;
+
+import io.pivotal.portfolio.domain.IdempotencyKey;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository for the idempotency keys reserved by order submissions.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+public interface IdempotencyKeyRepository extends CrudRepository<IdempotencyKey, Integer> {
+
+	/**
+	 * Releases the key of a submission that did not place its order, so that
+	 * it can be retried.
+	 *
+	 * @return the number of keys released.
+	 */
+	@Transactional
+	@Modifying
+	@Query("delete from IdempotencyKey where userId = :userId and idempotencyKey = :idempotencyKey")
+	int release(@Param("userId") String userId, @Param("idempotencyKey") String idempotencyKey);
+
+	/**
+	 * Releases the key if it was reserved before the given date, by a
+	 * submission that is presumed dead.
+	 *
+	 * @return the number of keys released.
+	 */
+	@Transactional
+	@Modifying
+	@Query("delete from IdempotencyKey where userId = :userId and idempotencyKey = :idempotencyKey and reservedAt < :before")
+	int releaseStale(@Param("userId") String userId, @Param("idempotencyKey") String idempotencyKey,
+			@Param("before") Date before);
+
+	/**
+	 * Deletes the keys reserved before the given date.
+	 *
+	 * @return the number of keys deleted.
+	 */
+	@Transactional
+	@Modifying
+	@Query("delete from IdempotencyKey where reservedAt < :before")
+	int purge(@Param("before") Date before);
+
+}
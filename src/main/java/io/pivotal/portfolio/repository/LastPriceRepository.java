@@ -0,0 +1,15 @@
+package io.pivotal.portfolio.repository;
+
+import io.pivotal.portfolio.domain.LastPrice;
+
+import org.springframework.data.repository.CrudRepository;
+
+/**
+ * Repository for the last known price of each symbol.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+public interface LastPriceRepository extends CrudRepository<LastPrice, String> {
+
+}
@@ -2,22 +2,53 @@ package io.pivotal.portfolio.repository;
 
 
 import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
 
 import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderAggregate;
 
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+
 /**
  * 
  * @author David Ferreira Pinto
  *
  */
-public interface OrderRepository extends CrudRepository<Order,Integer> {
+public interface OrderRepository extends CrudRepository<Order,Integer>, OrderRepositoryCustom {
 
 	@Query("from Order where userid = ?#{principal.claims['user_id']} order by completionDate asc")
 	//@Query("from Order order by completionDate asc")
 	List<Order> getOrders();
 
+	List<Order> findByUserIdOrderByCompletionDateAsc(String userId);
+
+	Order findByUserIdAndIdempotencyKey(String userId, String idempotencyKey);
+
+	Page<Order> findByUserIdAndSymbol(String userId, String symbol, Pageable pageable);
+
+	/**
+	 * Streams the orders of the user, fetching them in batches. MySQL
+	 * Connector/J honours the fetch size only with useCursorFetch=true in the
+	 * datasource URL, and reads the whole result otherwise.
+	 */
+	@QueryHints(@QueryHint(name = HINT_FETCH_SIZE, value = "500"))
+	@Query("from Order where userId = :userId order by completionDate asc, orderId asc")
+	Stream<Order> streamByUserId(@Param("userId") String userId);
+
+	@Query("select distinct userId from Order")
+	List<String> findUserIds();
+
+	@Query("select new io.pivotal.portfolio.domain.OrderAggregate(symbol, currency, orderType, sum(quantity), sum(price * quantity), count(orderId), max(orderId)) "
+			+ "from Order where userId = :userId group by symbol, currency, orderType")
+	List<OrderAggregate> aggregateByUserId(@Param("userId") String userId);
+
 }
@@ -0,0 +1,33 @@
+package io.pivotal.portfolio.repository;
+
+import java.util.Date;
+import java.util.List;
+
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderHistoryFilter;
+
+/**
+ * Queries on the orders that are built at runtime.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public interface OrderRepositoryCustom {
+
+	/**
+	 * Finds the orders matching the filter, ordered by completion date and
+	 * order id, the most recent first, starting after the given order.
+	 * 
+	 * @param filter
+	 *            the criteria to match.
+	 * @param afterDate
+	 *            the completion date of the last order already seen, or
+	 *            null for the first page.
+	 * @param afterOrderId
+	 *            the id of the last order already seen.
+	 * @param limit
+	 *            the maximum number of orders to return.
+	 * @return the orders.
+	 */
+	List<Order> findHistory(OrderHistoryFilter filter, Date afterDate, Integer afterOrderId, int limit);
+}
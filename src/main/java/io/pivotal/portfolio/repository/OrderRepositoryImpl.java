@@ -0,0 +1,68 @@
+package io.pivotal.portfolio.repository;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Path;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderHistoryFilter;
+
+/**
+ * Implements the order history query as a seek on (completion date, order
+ * id), so that every page costs the same as the first whatever its depth.
+ * Orders without a completion date cannot be positioned in that order, and
+ * are left out of the history.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class OrderRepositoryImpl implements OrderRepositoryCustom {
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Override
+	public List<Order> findHistory(OrderHistoryFilter filter, Date afterDate, Integer afterOrderId, int limit) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Order> query = builder.createQuery(Order.class);
+		Root<Order> order = query.from(Order.class);
+		Path<Date> completionDate = order.get("completionDate");
+		Path<Integer> orderId = order.get("orderId");
+
+		List<Predicate> predicates = new ArrayList<>();
+		predicates.add(builder.equal(order.get("userId"), filter.getUserId()));
+		predicates.add(builder.isNotNull(completionDate));
+		if (filter.getSymbol() != null) {
+			predicates.add(builder.equal(order.get("symbol"), filter.getSymbol()));
+		}
+		if (filter.getOrderType() != null) {
+			predicates.add(builder.equal(order.get("orderType"), filter.getOrderType()));
+		}
+		if (filter.getTag() != null) {
+			predicates.add(builder.equal(order.get("tag"), filter.getTag()));
+		}
+		if (filter.getFrom() != null) {
+			predicates.add(builder.greaterThanOrEqualTo(completionDate, filter.getFrom()));
+		}
+		if (filter.getTo() != null) {
+			predicates.add(builder.lessThan(completionDate, filter.getTo()));
+		}
+		if (afterDate != null && afterOrderId != null) {
+			predicates.add(builder.or(
+					builder.lessThan(completionDate, afterDate),
+					builder.and(builder.equal(completionDate, afterDate), builder.lessThan(orderId, afterOrderId))));
+		}
+		query.select(order)
+				.where(predicates.toArray(new Predicate[predicates.size()]))
+				.orderBy(builder.desc(completionDate), builder.desc(orderId));
+		return entityManager.createQuery(query).setMaxResults(limit).getResultList();
+	}
+}
@@ -0,0 +1,53 @@
+package io.pivotal.portfolio.repository;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import io.pivotal.portfolio.domain.OutboxTransaction;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Repository for the account transactions waiting to be delivered.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+public interface OutboxTransactionRepository extends CrudRepository<OutboxTransaction, Integer> {
+
+	List<OutboxTransaction> findTop100ByStatusAndNextAttemptAtLessThanEqualOrderByOutboxIdAsc(
+			OutboxTransaction.Status status, Date now);
+
+	List<OutboxTransaction> findTop100ByStatusInAndDispatchedAtBeforeOrderByOutboxIdAsc(
+			Collection<OutboxTransaction.Status> statuses, Date before);
+
+	/**
+	 * Moves the transaction from one status to another, only if it is still
+	 * in the expected status, so that a single dispatcher claims it.
+	 *
+	 * @return 1 if the transaction was claimed, 0 otherwise.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update OutboxTransaction set status = :to, claimedAt = :now where outboxId = :outboxId and status = :from")
+	int claim(@Param("outboxId") Integer outboxId, @Param("from") OutboxTransaction.Status from,
+			@Param("to") OutboxTransaction.Status to, @Param("now") Date now);
+
+	/**
+	 * Returns the transactions claimed before the given date, by a
+	 * dispatcher that did not finish them, to be dispatched again.
+	 *
+	 * @return the number of transactions released.
+	 */
+	@Transactional
+	@Modifying
+	@Query("update OutboxTransaction set status = :pending where status = :dispatching and claimedAt < :before")
+	int release(@Param("dispatching") OutboxTransaction.Status dispatching,
+			@Param("pending") OutboxTransaction.Status pending, @Param("before") Date before);
+
+}
@@ -0,0 +1,41 @@
+package io.pivotal.portfolio.repository;
+
+import java.util.List;
+
+import javax.persistence.LockModeType;
+
+import io.pivotal.portfolio.domain.Position;
+
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+
+/**
+ * Repository for the per user, per symbol projection of the orders.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+public interface PositionRepository extends CrudRepository<Position, Integer> {
+
+	List<Position> findByUserIdOrderBySymbolAsc(String userId);
+
+	@Query("select symbol from Position where userId = :userId")
+	List<String> findSymbolsByUserId(@Param("userId") String userId);
+
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	Position findByUserIdAndSymbol(String userId, String symbol);
+
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("from Position where userId = :userId order by symbol")
+	List<Position> lockByUserId(@Param("userId") String userId);
+
+	long countByUserId(String userId);
+
+	@Modifying
+	@Query("delete from Position where userId = :userId")
+	int deleteByUserId(@Param("userId") String userId);
+
+}
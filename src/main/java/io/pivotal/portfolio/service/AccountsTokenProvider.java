@@ -0,0 +1,117 @@
+package io.pivotal.portfolio.service;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.security.oauth2.client.endpoint.DefaultClientCredentialsTokenResponseClient;
+import org.springframework.security.oauth2.client.endpoint.OAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.client.endpoint.OAuth2ClientCredentialsGrantRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.stereotype.Component;
+
+/**
+ * Provides the token the portfolio service calls the accounts service with
+ * on its own behalf, when no user request is at hand.
+ *
+ * The token is obtained with the client credentials grant of the configured
+ * client registration, and reused until shortly before it expires. The
+ * registration is required when the outbox is enabled, and checked at
+ * startup.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "pivotal.portfolio.outbox.enabled", havingValue = "true")
+public class AccountsTokenProvider {
+	private static final Logger logger = LoggerFactory
+			.getLogger(AccountsTokenProvider.class);
+
+	private final ClientRegistrationRepository registrations;
+	private final OAuth2AccessTokenResponseClient<OAuth2ClientCredentialsGrantRequest> tokenClient;
+
+	@Value("${pivotal.accountsService.registrationId:accounts}")
+	private String registrationId = "accounts";
+
+	/**
+	 * How long before it expires a token is replaced.
+	 */
+	@Value("${pivotal.accountsService.tokenRefreshSeconds:60}")
+	private long refreshSeconds = 60;
+
+	private volatile OAuth2AccessToken token;
+
+	@Autowired
+	public AccountsTokenProvider(ClientRegistrationRepository registrations) {
+		this(registrations, new DefaultClientCredentialsTokenResponseClient());
+	}
+
+	AccountsTokenProvider(ClientRegistrationRepository registrations,
+			OAuth2AccessTokenResponseClient<OAuth2ClientCredentialsGrantRequest> tokenClient) {
+		this.registrations = registrations;
+		this.tokenClient = tokenClient;
+	}
+
+	/**
+	 * Fails the startup when the client registration is missing, rather than
+	 * every delivery of the outbox.
+	 */
+	@PostConstruct
+	public void checkRegistration() {
+		getRegistration();
+	}
+
+	/**
+	 * @return the value of a token that is not about to expire.
+	 */
+	public String getToken() {
+		OAuth2AccessToken current = token;
+		if (current == null || expiresSoon(current)) {
+			synchronized (this) {
+				current = token;
+				if (current == null || expiresSoon(current)) {
+					current = requestToken();
+					token = current;
+				}
+			}
+		}
+		return current.getTokenValue();
+	}
+
+	/**
+	 * Drops the token, when the accounts service no longer accepts it.
+	 */
+	public void invalidate() {
+		token = null;
+	}
+
+	private OAuth2AccessToken requestToken() {
+		ClientRegistration registration = getRegistration();
+		logger.debug("Requesting accounts token for client registration: " + registrationId);
+		return tokenClient.getTokenResponse(new OAuth2ClientCredentialsGrantRequest(registration)).getAccessToken();
+	}
+
+	private ClientRegistration getRegistration() {
+		ClientRegistration registration = registrations.findByRegistrationId(registrationId);
+		if (registration == null) {
+			throw new IllegalStateException("Client registration not found: " + registrationId
+					+ ", configure spring.security.oauth2.client.registration." + registrationId
+					+ " or disable pivotal.portfolio.outbox.enabled");
+		}
+		return registration;
+	}
+
+	private boolean expiresSoon(OAuth2AccessToken token) {
+		return token.getExpiresAt() != null
+				&& token.getExpiresAt().isBefore(Instant.now().plus(Duration.ofSeconds(refreshSeconds)));
+	}
+}
@@ -0,0 +1,17 @@
+package io.pivotal.portfolio.service;
+
+/**
+ * Thrown when an order is submitted with an idempotency key reserved by
+ * another submission that has not placed its order yet.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class IdempotencyConflictException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public IdempotencyConflictException(String key) {
+		super("Order submission in progress for key: " + key);
+	}
+}
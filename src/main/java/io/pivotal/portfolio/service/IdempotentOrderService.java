@@ -0,0 +1,238 @@
+package io.pivotal.portfolio.service;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivotal.portfolio.domain.IdempotencyKey;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.repository.IdempotencyKeyRepository;
+import io.pivotal.portfolio.repository.OrderRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Adds orders submitted with an idempotency key at most once per user and
+ * key.
+ * 
+ * A repeated submission is answered with the order saved by the first one:
+ * from an in memory index of the recent keys, from the database otherwise,
+ * or by waiting for the first submission if it is still in progress.
+ * 
+ * The key is reserved in the database, in its own transaction, before the
+ * order is placed, so that the account is debited once even when the
+ * submissions reach different instances. Submissions that did not save an
+ * order release the key, so they can be retried. A reservation older than
+ * the lease, without an order, is left by a submission that died and is
+ * taken over. Keys are purged once they are older than the window.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Service
+public class IdempotentOrderService {
+	private static final Logger logger = LoggerFactory
+			.getLogger(IdempotentOrderService.class);
+
+	public static final int MAX_KEY_LENGTH = 64;
+
+	private final PortfolioService portfolioService;
+	private final OrderRepository orderRepository;
+	private final IdempotencyKeyRepository keyRepository;
+
+	private final Cache<String, Order> recent;
+	private final ConcurrentMap<String, CompletableFuture<Order>> inFlight = new ConcurrentHashMap<>();
+
+	private final Counter cacheReplays;
+	private final Counter databaseReplays;
+	private final Counter inFlightReplays;
+
+	/**
+	 * How long a submission waits for the order of a key reserved by another
+	 * instance.
+	 */
+	@Value("${pivotal.portfolio.idempotency.waitMillis:5000}")
+	private long waitMillis = 5000;
+
+	@Value("${pivotal.portfolio.idempotency.pollMillis:100}")
+	private long pollMillis = 100;
+
+	/**
+	 * How long a reservation without an order is held, before it is taken
+	 * over. Must exceed the accounts service timeout.
+	 */
+	@Value("${pivotal.portfolio.idempotency.leaseMillis:30000}")
+	private long leaseMillis = 30000;
+
+	private final long windowSeconds;
+
+	public IdempotentOrderService(PortfolioService portfolioService, OrderRepository orderRepository,
+			IdempotencyKeyRepository keyRepository,
+			@Value("${pivotal.portfolio.idempotency.maximumSize:100000}") long maximumSize,
+			@Value("${pivotal.portfolio.idempotency.windowSeconds:86400}") long windowSeconds,
+			MeterRegistry registry) {
+		this.portfolioService = portfolioService;
+		this.orderRepository = orderRepository;
+		this.keyRepository = keyRepository;
+		this.windowSeconds = windowSeconds;
+		this.recent = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(windowSeconds, TimeUnit.SECONDS)
+				.build();
+		this.cacheReplays = registry.counter("portfolio.orders.replayed", "source", "cache");
+		this.databaseReplays = registry.counter("portfolio.orders.replayed", "source", "database");
+		this.inFlightReplays = registry.counter("portfolio.orders.replayed", "source", "inflight");
+	}
+
+	/**
+	 * Adds the order, unless the user already submitted one with the same
+	 * key.
+	 * 
+	 * @param order
+	 *            the order to add, with its user id set.
+	 * @param bearerToken
+	 *            the token to call the accounts service with.
+	 * @param idempotencyKey
+	 *            the key the client submitted the order with.
+	 * @return the saved order, either now or by the first submission.
+	 * @throws IdempotencyConflictException
+	 *             if another instance still holds the key.
+	 */
+	public Order addOrder(Order order, String bearerToken, String idempotencyKey) {
+		String key = order.getUserId() + ":" + idempotencyKey;
+		Order known = recent.getIfPresent(key);
+		if (known != null) {
+			cacheReplays.increment();
+			logger.debug("Order replayed from cache for key: " + key);
+			return known;
+		}
+		CompletableFuture<Order> mine = new CompletableFuture<>();
+		CompletableFuture<Order> running = inFlight.putIfAbsent(key, mine);
+		if (running != null) {
+			inFlightReplays.increment();
+			logger.debug("Order submission in progress for key: " + key);
+			return join(running);
+		}
+		try {
+			Order saved = place(order, bearerToken, idempotencyKey);
+			if (saved != null && saved.getOrderId() != null) {
+				recent.put(key, saved);
+			}
+			mine.complete(saved);
+			return saved;
+		} catch (RuntimeException e) {
+			mine.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, mine);
+		}
+	}
+
+	/**
+	 * Replays the order saved for the key, or places it once the key is
+	 * reserved, waiting for a while for another instance holding the key.
+	 */
+	private Order place(Order order, String bearerToken, String idempotencyKey) {
+		String userId = order.getUserId();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(waitMillis);
+		while (true) {
+			Order saved = orderRepository.findByUserIdAndIdempotencyKey(userId, idempotencyKey);
+			if (saved != null) {
+				databaseReplays.increment();
+				logger.debug("Order replayed from database for key: " + userId + ":" + idempotencyKey);
+				return saved;
+			}
+			if (reserve(userId, idempotencyKey)) {
+				return save(order, bearerToken, idempotencyKey);
+			}
+			if (takeOver(userId, idempotencyKey)) {
+				continue;
+			}
+			if (System.nanoTime() >= deadline) {
+				throw new IdempotencyConflictException(userId + ":" + idempotencyKey);
+			}
+			try {
+				Thread.sleep(pollMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IdempotencyConflictException(userId + ":" + idempotencyKey);
+			}
+		}
+	}
+
+	/**
+	 * @return whether the key was reserved, false if another submission
+	 *         holds it.
+	 */
+	private boolean reserve(String userId, String idempotencyKey) {
+		try {
+			keyRepository.save(new IdempotencyKey(userId, idempotencyKey));
+			return true;
+		} catch (DataIntegrityViolationException e) {
+			logger.debug("Idempotency key reserved by another submission: " + userId + ":" + idempotencyKey);
+			return false;
+		}
+	}
+
+	/**
+	 * @return whether the reservation of the key was older than the lease,
+	 *         and released.
+	 */
+	private boolean takeOver(String userId, String idempotencyKey) {
+		Date before = new Date(System.currentTimeMillis() - leaseMillis);
+		if (keyRepository.releaseStale(userId, idempotencyKey, before) > 0) {
+			logger.warn("Stale idempotency key reservation taken over: " + userId + ":" + idempotencyKey);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Deletes the keys that are older than the window, whose orders are no
+	 * longer replayed.
+	 */
+	@Scheduled(fixedDelayString = "${pivotal.portfolio.idempotency.purgeDelayMillis:3600000}")
+	public void purge() {
+		Date before = new Date(System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(windowSeconds));
+		int purged = keyRepository.purge(before);
+		if (purged > 0) {
+			logger.info("Purged " + purged + " idempotency keys");
+		}
+	}
+
+	private Order save(Order order, String bearerToken, String idempotencyKey) {
+		Order saved = null;
+		try {
+			order.setIdempotencyKey(idempotencyKey);
+			saved = portfolioService.addOrder(order, bearerToken);
+			return saved;
+		} finally {
+			if (saved == null) {
+				keyRepository.release(order.getUserId(), idempotencyKey);
+			}
+		}
+	}
+
+	private Order join(CompletableFuture<Order> running) {
+		try {
+			return running.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw e;
+		}
+	}
+}
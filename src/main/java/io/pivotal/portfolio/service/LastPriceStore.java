@@ -0,0 +1,133 @@
+package io.pivotal.portfolio.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivotal.portfolio.domain.LastPrice;
+import io.pivotal.portfolio.domain.Quote;
+import io.pivotal.portfolio.repository.LastPriceRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Last price successfully fetched for each symbol, kept in memory and
+ * persisted so that it survives restarts.
+ * 
+ * Recording a price only updates the in memory table; the prices recorded
+ * since the last flush are written to the database in the background, one
+ * row per symbol however many times it was fetched.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+public class LastPriceStore {
+	private static final Logger logger = LoggerFactory
+			.getLogger(LastPriceStore.class);
+
+	private final LastPriceRepository repository;
+
+	private final ConcurrentMap<String, LastPrice> prices = new ConcurrentHashMap<>();
+
+	/**
+	 * Prices recorded and not yet written, by symbol.
+	 */
+	private final ConcurrentMap<String, LastPrice> pending = new ConcurrentHashMap<>();
+
+	private final Counter served;
+	private final Counter written;
+
+	@Autowired
+	public LastPriceStore(LastPriceRepository repository, MeterRegistry registry) {
+		this.repository = repository;
+		this.served = registry.counter("quotes.lastprice.served");
+		this.written = registry.counter("quotes.lastprice.written");
+	}
+
+	/**
+	 * Loads the persisted prices.
+	 */
+	@PostConstruct
+	public void load() {
+		try {
+			for (LastPrice price : repository.findAll()) {
+				prices.putIfAbsent(price.getSymbol(), price);
+			}
+			logger.info("Loaded " + prices.size() + " last known prices");
+		} catch (RuntimeException e) {
+			logger.warn("Could not load the last known prices", e);
+		}
+	}
+
+	/**
+	 * Records the prices of the quotes fetched.
+	 * 
+	 * @param quotes
+	 *            the quotes; those without a price are skipped.
+	 */
+	public void record(Collection<Quote> quotes) {
+		Date now = new Date();
+		for (Quote quote : quotes) {
+			if (quote != null && quote.getSymbol() != null && quote.getLastPrice() != null) {
+				LastPrice price = new LastPrice(quote, now);
+				prices.put(price.getSymbol(), price);
+				pending.put(price.getSymbol(), price);
+			}
+		}
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol.
+	 * @return the last known price of the symbol, as a STALE quote, or null
+	 *         if none is known.
+	 */
+	public Quote getQuote(String symbol) {
+		LastPrice price = prices.get(symbol);
+		if (price == null) {
+			return null;
+		}
+		served.increment();
+		return price.toQuote();
+	}
+
+	/**
+	 * Writes the prices recorded since the last flush.
+	 */
+	@Scheduled(fixedDelayString = "${pivotal.quotes.lastPrice.flushDelayMillis:5000}")
+	@PreDestroy
+	public void flush() {
+		List<LastPrice> batch = new ArrayList<>();
+		for (Map.Entry<String, LastPrice> entry : pending.entrySet()) {
+			if (pending.remove(entry.getKey(), entry.getValue())) {
+				batch.add(entry.getValue());
+			}
+		}
+		if (batch.isEmpty()) {
+			return;
+		}
+		try {
+			repository.saveAll(batch);
+			written.increment(batch.size());
+		} catch (RuntimeException e) {
+			logger.warn("Could not write " + batch.size() + " last known prices, will retry", e);
+			for (LastPrice price : batch) {
+				pending.putIfAbsent(price.getSymbol(), price);
+			}
+		}
+	}
+}
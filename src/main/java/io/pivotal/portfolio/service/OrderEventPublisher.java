@@ -0,0 +1,115 @@
+package io.pivotal.portfolio.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivotal.portfolio.config.OrderEventsBinding;
+import io.pivotal.portfolio.domain.OrderCancelledEvent;
+import io.pivotal.portfolio.domain.OrderPlacedEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.integration.annotation.ServiceActivator;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+import org.springframework.messaging.support.MessageBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionPhase;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Publishes the orders placed to the <code>orderPlaced</code> binding, and
+ * the orders cancelled to the <code>orderCancelled</code> binding, once the
+ * transaction that saved or deleted them has committed.
+ * 
+ * Publishing is best effort: a failure is logged and counted, it never
+ * affects the order. Messages the broker does not confirm are reported on
+ * the error channel of the binding.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+@EnableBinding(OrderEventsBinding.class)
+@ConditionalOnProperty(name = "pivotal.portfolio.events.enabled", havingValue = "true", matchIfMissing = true)
+public class OrderEventPublisher {
+	private static final Logger logger = LoggerFactory
+			.getLogger(OrderEventPublisher.class);
+
+	private final OrderEventsBinding binding;
+
+	private final Counter published;
+	private final Counter failed;
+
+	public OrderEventPublisher(OrderEventsBinding binding, MeterRegistry registry) {
+		this.binding = binding;
+		this.published = registry.counter("portfolio.events.published", "result", "sent");
+		this.failed = registry.counter("portfolio.events.published", "result", "failed");
+	}
+
+	/**
+	 * Sends the event once the order is committed.
+	 * 
+	 * @param event
+	 *            the order placed.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	public void publish(OrderPlacedEvent event) {
+		send(binding.orderPlaced(), event, event.getUserId(), event.getSymbol());
+	}
+
+	/**
+	 * Sends the event once the order is deleted.
+	 * 
+	 * @param event
+	 *            the order cancelled.
+	 */
+	@TransactionalEventListener(phase = TransactionPhase.AFTER_COMMIT, fallbackExecution = true)
+	public void publish(OrderCancelledEvent event) {
+		send(binding.orderCancelled(), event, event.getUserId(), event.getSymbol());
+	}
+
+	private void send(MessageChannel channel, Object event, String userId, String symbol) {
+		try {
+			Message<Object> message = MessageBuilder.withPayload(event)
+					.setHeader("userId", userId)
+					.setHeader("symbol", symbol)
+					.build();
+			if (channel.send(message)) {
+				published.increment();
+			} else {
+				failed.increment();
+				logger.warn("Order event not sent: " + event);
+			}
+		} catch (RuntimeException e) {
+			failed.increment();
+			logger.warn("Order event not sent: " + event, e);
+		}
+	}
+
+	/**
+	 * Reports the events the broker did not confirm or could not route.
+	 * 
+	 * @param message
+	 *            the error message.
+	 */
+	@ServiceActivator(inputChannel = "portfolio.orders.errors")
+	public void publishFailed(Message<?> message) {
+		failed.increment();
+		logger.warn("Order placed event not confirmed: " + message.getPayload());
+	}
+
+	/**
+	 * Reports the cancellations the broker did not confirm or could not
+	 * route.
+	 * 
+	 * @param message
+	 *            the error message.
+	 */
+	@ServiceActivator(inputChannel = "portfolio.orders.cancelled.errors")
+	public void publishCancelFailed(Message<?> message) {
+		failed.increment();
+		logger.warn("Order cancelled event not confirmed: " + message.getPayload());
+	}
+}
@@ -0,0 +1,197 @@
+package io.pivotal.portfolio.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.TimeZone;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.repository.OrderRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Exports the order history of a user, writing each order to the output as
+ * it is read from the database.
+ * 
+ * The orders are read through a forward only cursor and detached once
+ * written, so memory use does not grow with the history. A failed write,
+ * such as the client disconnecting, aborts the export and closes the
+ * cursor.
+ * 
+ * Text cells of the CSV format that a spreadsheet would evaluate as a
+ * formula are prefixed with a quote.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Service
+public class OrderExportService {
+	private static final Logger logger = LoggerFactory
+			.getLogger(OrderExportService.class);
+
+	private static final String CSV_HEADER = "orderId,accountId,symbol,orderType,quantity,price,orderFee,currency,completionDate,tag";
+
+	/**
+	 * The formats the orders can be exported in.
+	 */
+	public enum Format {
+		CSV("text/csv"), NDJSON("application/x-ndjson");
+
+		private final String contentType;
+
+		Format(String contentType) {
+			this.contentType = contentType;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+	}
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${pivotal.portfolio.export.flushRows:100}")
+	private int flushRows = 100;
+
+	/**
+	 * Writes the orders of the user to the output.
+	 * 
+	 * @param userId
+	 *            the user to export. Passed explicitly as the export may run
+	 *            outside the request thread.
+	 * @param format
+	 *            the format to write.
+	 * @param out
+	 *            where to write the orders to.
+	 * @return the number of orders written.
+	 * @throws IOException
+	 *             if the output could not be written, the export is then
+	 *             aborted.
+	 */
+	public long export(String userId, Format format, OutputStream out) throws IOException {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setReadOnly(true);
+		try {
+			Long written = template.execute(status -> {
+				try (Stream<Order> orders = orderRepository.streamByUserId(userId)) {
+					return write(orders.iterator(), format, out);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			logger.debug("Exported " + written + " orders for user: " + userId);
+			return written;
+		} catch (UncheckedIOException e) {
+			logger.info("Export aborted for user: " + userId + ": " + e.getCause().getMessage());
+			throw e.getCause();
+		}
+	}
+
+	private long write(Iterator<Order> orders, Format format, OutputStream out) throws IOException {
+		Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+		ObjectWriter json = objectMapper.writer().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+		SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+		if (format == Format.CSV) {
+			writer.write(CSV_HEADER);
+			writer.write('\n');
+		}
+		long count = 0;
+		while (orders.hasNext()) {
+			Order order = orders.next();
+			if (format == Format.CSV) {
+				writeCsv(writer, order, dateFormat);
+			} else {
+				json.writeValue(writer, order);
+				writer.write('\n');
+			}
+			// rows already written are not needed by the persistence context.
+			entityManager.detach(order);
+			if (++count % flushRows == 0) {
+				writer.flush();
+			}
+		}
+		writer.flush();
+		return count;
+	}
+
+	private void writeCsv(Writer writer, Order order, SimpleDateFormat dateFormat) throws IOException {
+		Date completionDate = order.getCompletionDate();
+		writer.write(csv(order.getOrderId()));
+		writer.write(',');
+		writer.write(csv(order.getAccountId()));
+		writer.write(',');
+		writer.write(csv(text(order.getSymbol())));
+		writer.write(',');
+		writer.write(csv(order.getOrderType()));
+		writer.write(',');
+		writer.write(csv(order.getQuantity()));
+		writer.write(',');
+		writer.write(csv(order.getPrice() == null ? null : order.getPrice().toPlainString()));
+		writer.write(',');
+		writer.write(csv(order.getOrderFee() == null ? null : order.getOrderFee().toPlainString()));
+		writer.write(',');
+		writer.write(csv(text(order.getCurrency())));
+		writer.write(',');
+		writer.write(csv(completionDate == null ? null : dateFormat.format(completionDate)));
+		writer.write(',');
+		writer.write(csv(text(order.getTag())));
+		writer.write('\n');
+	}
+
+	/**
+	 * Neutralises text that a spreadsheet would evaluate as a formula. Only
+	 * applied to text columns, so negative numbers are left as they are.
+	 */
+	private String text(String value) {
+		if (value == null || value.isEmpty()) {
+			return value;
+		}
+		char first = value.charAt(0);
+		if (first == '=' || first == '+' || first == '-' || first == '@') {
+			return "'" + value;
+		}
+		return value;
+	}
+
+	private String csv(Object value) {
+		if (value == null) {
+			return "";
+		}
+		String text = value.toString();
+		if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0 && text.indexOf('\r') < 0) {
+			return text;
+		}
+		return '"' + text.replace("\"", "\"\"") + '"';
+	}
+}
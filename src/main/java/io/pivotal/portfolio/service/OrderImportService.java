@@ -0,0 +1,316 @@
+package io.pivotal.portfolio.service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderImportJob;
+import io.pivotal.portfolio.domain.OrderType;
+import io.pivotal.portfolio.domain.PositionRebuildResult;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Imports historical orders in bulk.
+ * 
+ * The orders are read from a CSV stream, validated and inserted with JDBC
+ * batches. They are already settled, so the accounts service is not called.
+ * The positions of the users imported for are rebuilt once all the orders
+ * are in, or once the import has failed, for the orders inserted until then.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Service
+public class OrderImportService {
+	private static final Logger logger = LoggerFactory
+			.getLogger(OrderImportService.class);
+
+	private static final String INSERT_ORDER = "insert into ORDERS (userid, accountid, symbol, orderfee, tag, completiondate, ordertype, price, quantity, currency) "
+			+ "values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private static final List<String> REQUIRED_COLUMNS = Arrays.asList("userId", "accountId", "symbol", "orderType",
+			"quantity", "price", "currency", "completionDate");
+
+	private static final int MAX_JOBS = 20;
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private PositionService positionService;
+
+	@Value("${pivotal.portfolio.import.batchSize:1000}")
+	private int batchSize = 1000;
+
+	private final Map<String, OrderImportJob> jobs = new LinkedHashMap<>();
+
+	/**
+	 * Imports the orders of the CSV stream. The first line names the
+	 * columns: userId, accountId, symbol, orderType, quantity, price,
+	 * currency and completionDate are required, orderFee and tag are
+	 * optional.
+	 * 
+	 * @param in
+	 *            the CSV stream.
+	 * @return the finished job.
+	 */
+	public OrderImportJob importOrders(InputStream in) {
+		OrderImportJob job = createJob();
+		logger.info("Starting order import: " + job.getJobId());
+		Set<String> users = new TreeSet<>();
+		try {
+			doImport(new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8)), job, users);
+			rebuild(users, job);
+			job.setStatus(job.getNotRebuilt() == 0 ? OrderImportJob.Status.COMPLETED
+					: OrderImportJob.Status.COMPLETED_WITH_ERRORS);
+			logger.info("Order import completed: " + job);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("Order import failed: " + job, e);
+			// the batches inserted before the failure are committed.
+			rebuild(users, job);
+			job.fail(e.getMessage());
+		}
+		return job;
+	}
+
+	/**
+	 * Rebuilds the positions of the users imported for, recording those that
+	 * were not rebuilt.
+	 */
+	private void rebuild(Set<String> users, OrderImportJob job) {
+		job.setStatus(OrderImportJob.Status.REBUILDING);
+		long rebuilt = 0;
+		for (String userId : users) {
+			try {
+				PositionRebuildResult result = positionService.rebuild(userId);
+				if (result != null && result.isApplied()) {
+					rebuilt++;
+				} else {
+					job.rebuildFailed(userId, "Positions do not match the orders: "
+							+ (result == null ? null : result.getMismatched()));
+				}
+			} catch (RuntimeException e) {
+				logger.warn("Positions not rebuilt for user: " + userId, e);
+				job.rebuildFailed(userId, e.getMessage());
+			}
+		}
+		job.setUsers(rebuilt);
+	}
+
+	/**
+	 * @return the running and most recent import jobs.
+	 */
+	public List<OrderImportJob> getJobs() {
+		synchronized (jobs) {
+			return new ArrayList<>(jobs.values());
+		}
+	}
+
+	private OrderImportJob createJob() {
+		OrderImportJob job = new OrderImportJob(UUID.randomUUID().toString());
+		synchronized (jobs) {
+			Iterator<OrderImportJob> oldest = jobs.values().iterator();
+			while (jobs.size() >= MAX_JOBS && oldest.hasNext()) {
+				if (oldest.next().isFinished()) {
+					oldest.remove();
+				}
+			}
+			jobs.put(job.getJobId(), job);
+		}
+		return job;
+	}
+
+	private void doImport(BufferedReader reader, OrderImportJob job, Set<String> users) throws IOException {
+		String header = reader.readLine();
+		if (header == null) {
+			throw new IllegalArgumentException("The import is empty");
+		}
+		Map<String, Integer> columns = new HashMap<>();
+		List<String> names = parseLine(header);
+		for (int i = 0; i < names.size(); i++) {
+			columns.put(names.get(i).trim(), i);
+		}
+		for (String required : REQUIRED_COLUMNS) {
+			if (!columns.containsKey(required)) {
+				throw new IllegalArgumentException("Missing column: " + required);
+			}
+		}
+
+		List<Order> batch = new ArrayList<>(batchSize);
+		long lineNumber = 1;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty()) {
+				continue;
+			}
+			job.incrementRead();
+			try {
+				batch.add(parseOrder(parseLine(line), columns));
+			} catch (IllegalArgumentException e) {
+				job.reject(lineNumber, e.getMessage());
+				continue;
+			}
+			if (batch.size() >= batchSize) {
+				insert(batch, job, users);
+				batch = new ArrayList<>(batchSize);
+			}
+		}
+		if (!batch.isEmpty()) {
+			insert(batch, job, users);
+		}
+	}
+
+	private void insert(Collection<Order> batch, OrderImportJob job, Set<String> users) {
+		new TransactionTemplate(transactionManager).execute(status -> jdbcTemplate.batchUpdate(INSERT_ORDER, batch,
+				batch.size(), (ps, order) -> {
+					ps.setString(1, order.getUserId());
+					ps.setInt(2, order.getAccountId());
+					ps.setString(3, order.getSymbol());
+					ps.setBigDecimal(4, order.getOrderFee());
+					ps.setString(5, order.getTag());
+					ps.setTimestamp(6, new Timestamp(order.getCompletionDate().getTime()));
+					// the order type is mapped by ordinal.
+					ps.setInt(7, order.getOrderType().ordinal());
+					ps.setBigDecimal(8, order.getPrice());
+					ps.setInt(9, order.getQuantity());
+					ps.setString(10, order.getCurrency());
+				}));
+		for (Order order : batch) {
+			users.add(order.getUserId());
+		}
+		job.addImported(batch.size());
+		logger.debug("Imported batch of " + batch.size() + " orders: " + job);
+	}
+
+	private Order parseOrder(List<String> fields, Map<String, Integer> columns) {
+		Order order = new Order();
+		order.setUserId(required(fields, columns, "userId"));
+		order.setAccountId(parseInteger(required(fields, columns, "accountId"), "accountId"));
+		order.setSymbol(required(fields, columns, "symbol"));
+		try {
+			order.setOrderType(OrderType.valueOf(required(fields, columns, "orderType")));
+		} catch (IllegalArgumentException e) {
+			throw new IllegalArgumentException("Invalid orderType: " + field(fields, columns, "orderType"));
+		}
+		order.setQuantity(parseInteger(required(fields, columns, "quantity"), "quantity"));
+		order.setPrice(parseDecimal(required(fields, columns, "price"), "price"));
+		order.setCurrency(required(fields, columns, "currency"));
+		try {
+			order.setCompletionDate(Date.from(Instant.parse(required(fields, columns, "completionDate"))));
+		} catch (DateTimeParseException e) {
+			throw new IllegalArgumentException("Invalid completionDate: " + field(fields, columns, "completionDate"));
+		}
+		String orderFee = field(fields, columns, "orderFee");
+		order.setOrderFee(orderFee == null ? Order.DEFAULT_ORDER_FEE : parseDecimal(orderFee, "orderFee"));
+		order.setTag(field(fields, columns, "tag"));
+
+		if (order.getSymbol().length() > 10) {
+			throw new IllegalArgumentException("Invalid symbol: " + order.getSymbol());
+		}
+		if (order.getCurrency().length() != 3) {
+			throw new IllegalArgumentException("Invalid currency: " + order.getCurrency());
+		}
+		if (order.getQuantity() <= 0) {
+			throw new IllegalArgumentException("Invalid quantity: " + order.getQuantity());
+		}
+		if (order.getPrice().signum() < 0) {
+			throw new IllegalArgumentException("Invalid price: " + order.getPrice());
+		}
+		return order;
+	}
+
+	private String field(List<String> fields, Map<String, Integer> columns, String name) {
+		Integer index = columns.get(name);
+		if (index == null || index >= fields.size()) {
+			return null;
+		}
+		String value = fields.get(index).trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	private String required(List<String> fields, Map<String, Integer> columns, String name) {
+		String value = field(fields, columns, name);
+		if (value == null) {
+			throw new IllegalArgumentException("Missing " + name);
+		}
+		return value;
+	}
+
+	private Integer parseInteger(String value, String name) {
+		try {
+			return Integer.valueOf(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+	}
+
+	private BigDecimal parseDecimal(String value, String name) {
+		try {
+			return new BigDecimal(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid " + name + ": " + value);
+		}
+	}
+
+	/**
+	 * Splits a CSV line, honouring double quoted fields.
+	 */
+	static List<String> parseLine(String line) {
+		List<String> fields = new ArrayList<>();
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (quoted) {
+				if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					field.append('"');
+					i++;
+				} else if (c == '"') {
+					quoted = false;
+				} else {
+					field.append(c);
+				}
+			} else if (c == '"') {
+				quoted = true;
+			} else if (c == ',') {
+				fields.add(field.toString());
+				field.setLength(0);
+			} else {
+				field.append(c);
+			}
+		}
+		fields.add(field.toString());
+		return fields;
+	}
+}
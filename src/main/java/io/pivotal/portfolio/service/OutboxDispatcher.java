@@ -0,0 +1,217 @@
+package io.pivotal.portfolio.service;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivotal.portfolio.domain.OutboxTransaction;
+import io.pivotal.portfolio.repository.OutboxTransactionRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+/**
+ * Delivers the account transactions of the outbox to the accounts service.
+ * 
+ * Due transactions are claimed one at a time, so that several instances can
+ * dispatch side by side, and posted without holding a database connection,
+ * with the token of the portfolio service itself and a key stable across
+ * attempts. Dispatching runs on a scheduler of its own, and each post is
+ * bounded by the accounts timeout, shorter than the claim timeout, so that a
+ * transaction is not claimed again while it is being posted. Transactions declined by
+ * the accounts service are final and their orders are cancelled. Other
+ * failures are retried with an exponential backoff until the maximum number
+ * of attempts. Delivered and declined transactions are purged after the
+ * retention period, failed ones are kept.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+@ConditionalOnProperty(name = "pivotal.portfolio.outbox.enabled", havingValue = "true")
+public class OutboxDispatcher {
+	private static final Logger logger = LoggerFactory
+			.getLogger(OutboxDispatcher.class);
+
+	private static final int PURGE_BATCH = 100;
+
+	private static final String IDEMPOTENCY_KEY_PREFIX = "portfolio-outbox-";
+
+	private static final Collection<OutboxTransaction.Status> FINISHED = Arrays
+			.asList(OutboxTransaction.Status.DONE, OutboxTransaction.Status.DECLINED);
+
+	private final OutboxTransactionRepository repository;
+	private final PortfolioService portfolioService;
+	private final AccountsTokenProvider tokenProvider;
+
+	private final Counter delivered;
+	private final Counter declined;
+	private final Counter retried;
+	private final Counter failed;
+
+	@Value("${pivotal.portfolio.outbox.maxAttempts:10}")
+	private int maxAttempts = 10;
+
+	@Value("${pivotal.portfolio.outbox.retryDelayMillis:1000}")
+	private long retryDelayMillis = 1000;
+
+	@Value("${pivotal.portfolio.outbox.maxRetryDelayMillis:300000}")
+	private long maxRetryDelayMillis = 300000;
+
+	@Value("${pivotal.portfolio.outbox.claimTimeoutMillis:300000}")
+	private long claimTimeoutMillis = 300000;
+
+	@Value("${pivotal.portfolio.outbox.retentionHours:168}")
+	private long retentionHours = 168;
+
+	@Value("${pivotal.portfolio.outbox.dispatchDelayMillis:1000}")
+	private long dispatchDelayMillis = 1000;
+
+	private ThreadPoolTaskScheduler scheduler;
+
+	@Autowired
+	public OutboxDispatcher(OutboxTransactionRepository repository, PortfolioService portfolioService,
+			AccountsTokenProvider tokenProvider, MeterRegistry registry) {
+		this.repository = repository;
+		this.portfolioService = portfolioService;
+		this.tokenProvider = tokenProvider;
+		this.delivered = registry.counter("portfolio.outbox.dispatch", "result", "delivered");
+		this.declined = registry.counter("portfolio.outbox.dispatch", "result", "declined");
+		this.retried = registry.counter("portfolio.outbox.dispatch", "result", "retry");
+		this.failed = registry.counter("portfolio.outbox.dispatch", "result", "failed");
+	}
+
+	/**
+	 * Starts dispatching, on a thread of its own so that a slow accounts
+	 * service does not hold up the other scheduled tasks.
+	 */
+	@PostConstruct
+	public void start() {
+		if (portfolioService.getAccountsTimeoutMillis() >= claimTimeoutMillis) {
+			throw new IllegalStateException("The accounts timeout, " + portfolioService.getAccountsTimeoutMillis()
+					+ "ms, must be shorter than the outbox claim timeout, " + claimTimeoutMillis + "ms");
+		}
+		scheduler = new ThreadPoolTaskScheduler();
+		scheduler.setPoolSize(1);
+		scheduler.setThreadNamePrefix("outbox-dispatch-");
+		scheduler.initialize();
+		scheduler.scheduleWithFixedDelay(this::dispatch, dispatchDelayMillis);
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+		}
+	}
+
+	/**
+	 * Delivers the transactions that are due.
+	 */
+	public void dispatch() {
+		Date now = new Date();
+		int released = repository.release(OutboxTransaction.Status.DISPATCHING, OutboxTransaction.Status.PENDING,
+				new Date(now.getTime() - claimTimeoutMillis));
+		if (released > 0) {
+			logger.warn("Released " + released + " outbox transactions left unfinished by a dispatcher");
+		}
+		List<OutboxTransaction> due = repository
+				.findTop100ByStatusAndNextAttemptAtLessThanEqualOrderByOutboxIdAsc(OutboxTransaction.Status.PENDING, now);
+		for (OutboxTransaction pending : due) {
+			if (repository.claim(pending.getOutboxId(), OutboxTransaction.Status.PENDING,
+					OutboxTransaction.Status.DISPATCHING, new Date()) == 1) {
+				deliver(pending);
+			}
+		}
+	}
+
+	/**
+	 * Deletes the delivered and declined transactions older than the
+	 * retention period.
+	 */
+	@Scheduled(fixedDelayString = "${pivotal.portfolio.outbox.purgeDelayMillis:3600000}")
+	public void purge() {
+		Date before = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(retentionHours));
+		int purged = 0;
+		List<OutboxTransaction> finished;
+		do {
+			finished = repository.findTop100ByStatusInAndDispatchedAtBeforeOrderByOutboxIdAsc(FINISHED, before);
+			repository.deleteAll(finished);
+			purged += finished.size();
+		} while (finished.size() == PURGE_BATCH);
+		if (purged > 0) {
+			logger.info("Purged " + purged + " finished outbox transactions");
+		}
+	}
+
+	private void deliver(OutboxTransaction pending) {
+		String error = null;
+		boolean rejected = false;
+		try {
+			HttpStatus status = portfolioService.sendTransaction(pending.toTransaction(), tokenProvider.getToken(),
+					IDEMPOTENCY_KEY_PREFIX + pending.getOutboxId());
+			if (status != HttpStatus.OK) {
+				error = "Transaction not accepted by the accounts service: " + status;
+				if (status == HttpStatus.UNAUTHORIZED) {
+					// a token no longer accepted is requested again.
+					tokenProvider.invalidate();
+				}
+				if (isDeclined(status)) {
+					rejected = true;
+					portfolioService.cancelOrders(pending.getOrderIds(), error);
+				}
+			}
+		} catch (RuntimeException e) {
+			// not cancelled, the transaction is posted again.
+			rejected = false;
+			error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+		}
+		int attempts = pending.getAttempts() + 1;
+		pending.setAttempts(attempts);
+		pending.setLastError(error);
+		if (error == null) {
+			pending.setStatus(OutboxTransaction.Status.DONE);
+			pending.setDispatchedAt(new Date());
+			delivered.increment();
+		} else if (rejected) {
+			pending.setStatus(OutboxTransaction.Status.DECLINED);
+			pending.setDispatchedAt(new Date());
+			declined.increment();
+			logger.warn("Outbox transaction declined, orders cancelled: " + pending);
+		} else if (attempts >= maxAttempts) {
+			pending.setStatus(OutboxTransaction.Status.FAILED);
+			failed.increment();
+			logger.error("Outbox transaction not delivered after " + attempts + " attempts: " + pending);
+		} else {
+			long delay = Math.min(maxRetryDelayMillis, retryDelayMillis << Math.min(attempts - 1, 20));
+			pending.setStatus(OutboxTransaction.Status.PENDING);
+			pending.setNextAttemptAt(new Date(System.currentTimeMillis() + delay));
+			retried.increment();
+			logger.warn("Outbox transaction will be retried in " + delay + "ms: " + pending);
+		}
+		repository.save(pending);
+	}
+
+	/**
+	 * Whether the accounts service answered that the transaction will never
+	 * be accepted, rather than that it cannot be handled now.
+	 */
+	private static boolean isDeclined(HttpStatus status) {
+		return status.is4xxClientError() && status != HttpStatus.UNAUTHORIZED
+				&& status != HttpStatus.REQUEST_TIMEOUT && status != HttpStatus.TOO_MANY_REQUESTS;
+	}
+}
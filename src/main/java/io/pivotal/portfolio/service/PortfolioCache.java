@@ -0,0 +1,121 @@
+package io.pivotal.portfolio.service;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import io.pivotal.portfolio.domain.Position;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Caches the order derived part of the portfolios, the positions, per user,
+ * together with the symbols each user was last seen holding.
+ * 
+ * Entries are bounded in number and expire after a time to live. Hits,
+ * misses and evictions are published as <code>cache.*</code> metrics with
+ * the tag <code>cache=portfolio</code>.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+public class PortfolioCache {
+	private static final Logger logger = LoggerFactory
+			.getLogger(PortfolioCache.class);
+
+	private final Cache<String, List<Position>> cache;
+
+	private final Cache<String, Set<String>> symbols;
+
+	public PortfolioCache(@Value("${pivotal.portfolio.cache.maximumSize:10000}") long maximumSize,
+			@Value("${pivotal.portfolio.cache.ttlSeconds:60}") long ttlSeconds,
+			MeterRegistry registry) {
+		this.cache = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.recordStats()
+				.build();
+		CaffeineCacheMetrics.monitor(registry, cache, "portfolio");
+		this.symbols = Caffeine.newBuilder()
+				.maximumSize(maximumSize)
+				.expireAfterAccess(1, TimeUnit.DAYS)
+				.build();
+	}
+
+	/**
+	 * The symbols last seen in the portfolio of the user. Unlike the
+	 * positions they are not evicted when orders are added, as they are only
+	 * used to fetch quotes ahead of loading the positions.
+	 * 
+	 * @param userId
+	 *            the user to retrieve for.
+	 * @return the symbols, or null if not known.
+	 */
+	public Set<String> getSymbols(String userId) {
+		return symbols.getIfPresent(userId);
+	}
+
+	/**
+	 * Remembers the symbols in the portfolio of the user.
+	 * 
+	 * @param userId
+	 *            the user.
+	 * @param userSymbols
+	 *            the symbols of the portfolio.
+	 */
+	public void putSymbols(String userId, Set<String> userSymbols) {
+		symbols.put(userId, Collections.unmodifiableSet(new HashSet<>(userSymbols)));
+	}
+
+	/**
+	 * Retrieves the positions of the user, loading them on a miss.
+	 * 
+	 * @param userId
+	 *            the user to retrieve for.
+	 * @param loader
+	 *            loads the positions of the user.
+	 * @return the positions, not to be modified.
+	 */
+	public List<Position> getPositions(String userId, Function<String, List<Position>> loader) {
+		return cache.get(userId, key -> Collections.unmodifiableList(loader.apply(key)));
+	}
+
+	/**
+	 * Removes the positions of the user. When called within a transaction,
+	 * the entry is removed once it commits so that a concurrent read can not
+	 * cache the positions from before the change.
+	 * 
+	 * @param userId
+	 *            the user to remove.
+	 */
+	public void evict(String userId) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					invalidate(userId);
+				}
+			});
+		} else {
+			invalidate(userId);
+		}
+	}
+
+	private void invalidate(String userId) {
+		logger.debug("Evicting cached portfolio for user: " + userId);
+		cache.invalidate(userId);
+	}
+}
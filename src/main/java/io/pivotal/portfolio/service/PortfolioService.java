@@ -1,14 +1,24 @@
 package io.pivotal.portfolio.service;
 
 import com.newrelic.api.agent.Trace;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import io.pivotal.portfolio.domain.*;
 import io.pivotal.portfolio.repository.OrderRepository;
+import io.pivotal.portfolio.repository.OutboxTransactionRepository;
+import io.pivotal.portfolio.repository.PositionRepository;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -19,12 +29,31 @@ import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import static org.springframework.security.oauth2.client.web.reactive.function.client.ServletOAuth2AuthorizedClientExchangeFilterFunction.oauth2AuthorizedClient;
 
@@ -40,6 +69,14 @@ public class PortfolioService {
 	private static final Logger logger = LoggerFactory
 			.getLogger(PortfolioService.class);
 
+	private static final String READ = "read";
+	private static final String WRITE = "write";
+	private static final String OUTCOME_SUCCESS = "success";
+	private static final String OUTCOME_TIMEOUT = "timeout";
+	private static final String OUTCOME_DECLINED = "declined";
+	private static final String OUTCOME_ERROR = "error";
+	private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
 	/**
 	 * The service than handles the calls to get quotes.
 	 */
@@ -52,63 +89,416 @@ public class PortfolioService {
 	@Autowired
 	private OrderRepository orderRepository;
 
+	@Autowired
+	private PositionRepository positionRepository;
+
+	@Autowired
+	private PositionService positionService;
+
+	@Autowired
+	private PortfolioCache portfolioCache;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	@Autowired
+	private OutboxTransactionRepository outboxRepository;
+
+	@Autowired
+	private ApplicationEventPublisher eventPublisher;
+
+	/**
+	 * Whether the account transactions are written to the outbox, rather than
+	 * posted to the accounts service while the order is saved. The outbox
+	 * needs a client credentials registration for the accounts service, see
+	 * {@link AccountsTokenProvider}.
+	 */
+	@Value("${pivotal.portfolio.outbox.enabled:false}")
+	private boolean outboxEnabled;
+
+	/**
+	 * How long a call to the accounts service may take.
+	 */
+	@Value("${pivotal.accountsService.timeoutMillis:10000}")
+	private long accountsTimeoutMillis = 10000;
+
 	@Value("${pivotal.accountsService.name}")
 	protected String accountsService;
 
+	@Value("${pivotal.portfolio.orders.maxPageSize:200}")
+	private int maxPageSize = 200;
+
+	/**
+	 * How long a portfolio read may take, loading the positions included,
+	 * before it is answered with the quotes already available.
+	 */
+	@Value("${pivotal.portfolio.read.budgetMillis:2000}")
+	private long readBudgetMillis = 2000;
+
+	@Value("${pivotal.portfolio.read.maxBudgetMillis:10000}")
+	private long maxReadBudgetMillis = 10000;
+
+	/**
+	 * Retrieves the portfolio for the given user, with the orders of each
+	 * holding when asked for.
+	 *
+	 * @param userId
+	 *            The user id to retrieve for.
+	 * @param withOrders
+	 *            whether to embed the orders in the holdings.
+	 * @return The portfolio.
+	 */
+	public Portfolio getPortfolio(String userId, boolean withOrders) {
+		return getPortfolio(userId, withOrders, null);
+	}
+
+	/**
+	 * Retrieves the portfolio for the given user within a latency budget,
+	 * with the orders of each holding when asked for. The orders are loaded
+	 * once the holdings are valued, if the budget is not spent by then; the
+	 * summary portfolio is returned otherwise.
+	 *
+	 * @param userId
+	 *            The user id to retrieve for.
+	 * @param withOrders
+	 *            whether to embed the orders in the holdings.
+	 * @param budgetMillis
+	 *            the budget of the read, or null for the configured one. It
+	 *            is capped by the configured maximum.
+	 * @return The portfolio.
+	 */
+	public Portfolio getPortfolio(String userId, boolean withOrders, Long budgetMillis) {
+		long budget = budgetMillis == null ? readBudgetMillis : Math.min(budgetMillis, maxReadBudgetMillis);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budget);
+		Portfolio folio = getPortfolioBefore(userId, deadline);
+		if (withOrders) {
+			long ordersStart = System.nanoTime();
+			if (ordersStart >= deadline) {
+				logger.warn("Portfolio read budget exceeded, orders not loaded for userId: " + userId);
+				meterRegistry.counter("portfolio.read.budget.exceeded").increment();
+				recordStage(READ, "orders", OUTCOME_TIMEOUT, ordersStart);
+				return folio;
+			}
+			List<Order> orders = orderRepository.findByUserIdOrderByCompletionDateAsc(userId);
+			recordStage(READ, "orders", OUTCOME_SUCCESS, ordersStart);
+			for (Order order : orders) {
+				Holding holding = folio.getHolding(order.getSymbol());
+				// the holding already carries the totals, only attach the order.
+				if (holding != null) {
+					holding.getOrders().add(order);
+				}
+			}
+		}
+		return folio;
+	}
+
+	/**
+	 * Retrieves a page of the orders of one holding of the given user, the
+	 * most recent first.
+	 *
+	 * @param userId
+	 *            The user id to retrieve for.
+	 * @param symbol
+	 *            The symbol of the holding.
+	 * @param page
+	 *            The zero based page number.
+	 * @param size
+	 *            The page size, capped to the maximum page size.
+	 * @return The page of orders.
+	 */
+	public Page<Order> getHoldingOrders(String userId, String symbol, int page, int size) {
+		Pageable pageable = PageRequest.of(Math.max(page, 0), Math.max(1, Math.min(size, maxPageSize)),
+				Sort.by(Sort.Direction.DESC, "completionDate", "orderId"));
+		return orderRepository.findByUserIdAndSymbol(userId, symbol, pageable);
+	}
+
+	/**
+	 * Retrieves a page of the order history matching the filter, the most
+	 * recent first. Orders without a completion date are not part of the
+	 * history, as the cursor positions the pages by completion date.
+	 *
+	 * @param filter
+	 *            The criteria to match.
+	 * @param cursor
+	 *            The next cursor of the previous page, or null for the first
+	 *            page.
+	 * @param size
+	 *            The page size, capped to the maximum page size.
+	 * @return The page of orders.
+	 * @throws IllegalArgumentException
+	 *             if the cursor is not valid.
+	 */
+	public OrderHistoryPage getOrderHistory(OrderHistoryFilter filter, String cursor, int size) {
+		Date afterDate = null;
+		Integer afterOrderId = null;
+		if (cursor != null && !cursor.isEmpty()) {
+			String[] position = decodeCursor(cursor);
+			afterDate = new Date(Long.parseLong(position[0]));
+			afterOrderId = Integer.valueOf(position[1]);
+		}
+		int limit = Math.max(1, Math.min(size, maxPageSize));
+		// one more than the page tells whether there is a next page.
+		List<Order> orders = new ArrayList<>(orderRepository.findHistory(filter, afterDate, afterOrderId, limit + 1));
+		orders.removeIf(order -> order.getCompletionDate() == null);
+		OrderHistoryPage page = new OrderHistoryPage();
+		if (orders.size() > limit) {
+			orders = new ArrayList<>(orders.subList(0, limit));
+			Order last = orders.get(limit - 1);
+			page.setNextCursor(encodeCursor(last));
+		}
+		page.setOrders(orders);
+		return page;
+	}
+
+	private String encodeCursor(Order order) {
+		String position = order.getCompletionDate().getTime() + ":" + order.getOrderId();
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(position.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private String[] decodeCursor(String cursor) {
+		try {
+			String[] position = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+			if (position.length == 2) {
+				Long.parseLong(position[0]);
+				Integer.parseInt(position[1]);
+				return position;
+			}
+		} catch (IllegalArgumentException e) {
+			// NumberFormatException is an IllegalArgumentException.
+		}
+		throw new IllegalArgumentException("Invalid order history cursor: " + cursor);
+	}
+
+	/**
+	 * Retrieves the summary portfolio for the given user, without the orders
+	 * of the holdings.
+	 *
+	 * @param userId
+	 *            The user id to retrieve for.
+	 * @return The portfolio.
+	 */
+	public Portfolio getPortfolio(String userId) {
+		return getPortfolioBefore(userId, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readBudgetMillis));
+	}
+
 	/**
-	 * Retrieves the portfolio for the given accountId.
+	 * Retrieves the summary portfolio for the given user within a latency
+	 * budget. The budget starts with the read and covers loading the
+	 * positions; the quotes are waited for until the deadline. Holdings
+	 * whose quote has not arrived by then are valued with the quotes
+	 * available without fetching, and flagged accordingly.
 	 *
-	 *            The account id to retrieve for.
+	 * @param userId
+	 *            The user id to retrieve for.
+	 * @param deadline
+	 *            the {@link System#nanoTime()} the read should end by.
 	 * @return The portfolio.
 	 */
 	@Trace(async = true)
-	public Portfolio getPortfolio() {
+	private Portfolio getPortfolioBefore(String userId, long deadline) {
 		/*
-		 * Retrieve all orders for accounts id and build portfolio. - for each
-		 * order create holding. - for each holding find current price.
+		 * Start fetching the quotes of the symbols expected for user id,
+		 * meanwhile retrieve the positions and build portfolio. - for each
+		 * position create holding. - fetch the quotes of symbols not
+		 * expected. - for each holding set current price.
 		 */
-		logger.debug("Getting portfolio for accountId: " );
-		List<Order> orders = orderRepository.getOrders();
+		logger.debug("Getting portfolio for userId: " + userId);
+		Set<String> expected = getExpectedSymbols(userId);
+		long quotesStart = System.nanoTime();
+		CompletableFuture<List<Quote>> expectedQuotes = expected.isEmpty()
+				? CompletableFuture.completedFuture(Collections.<Quote>emptyList())
+				: quoteService.getQuotes(expected).toFuture();
+		CompletableFuture<Long> quotesEnd = expectedQuotes.handle((quotes, e) -> System.nanoTime());
+
+		long loadStart = System.nanoTime();
+		List<Position> positions = portfolioCache.getPositions(userId, this::loadPositions);
+		long loadEnd = System.nanoTime();
 		Portfolio folio = new Portfolio();
-		return createPortfolio(folio, orders);
+		addHoldings(folio, positions);
+		recordStage(READ, "group", OUTCOME_SUCCESS, loadEnd);
+		recordSize(positions);
+		Set<String> symbols = folio.getHoldings().keySet();
+		portfolioCache.putSymbols(userId, symbols);
+
+		List<Quote> quotes = new ArrayList<>(awaitQuotes(expectedQuotes, quotesEnd, expected, quotesStart, deadline));
+		long joined = System.nanoTime();
+		recordOverlap(quotesStart, quotesEnd.getNow(joined), loadStart, loadEnd, joined);
+
+		Set<String> missed = new HashSet<>(symbols);
+		missed.removeAll(expected);
+		if (missed.size() > 0) {
+			long missedStart = System.nanoTime();
+			CompletableFuture<List<Quote>> missedQuotes = quoteService.getQuotes(missed).toFuture();
+			CompletableFuture<Long> missedEnd = missedQuotes.handle((fetched, e) -> System.nanoTime());
+			quotes.addAll(awaitQuotes(missedQuotes, missedEnd, missed, missedStart, deadline));
+		}
+		return valuePortfolio(folio, quotes);
 	}
 
 	/**
-	 * Builds a portfolio object with the list of orders.
-	 * 
-	 * @param portfolio
-	 *            the portfolio object to build.
-	 * @param orders
-	 *            the list of orders.
-	 * @return the portfolio object
+	 * The symbols the portfolio of the user is expected to hold, as last seen
+	 * or from the positions.
 	 */
-	@Trace(async = true)
-	private Portfolio createPortfolio(Portfolio portfolio, List<Order> orders) {
-		// TODO: change to forEach() and maybe in parallel?
+	private Set<String> getExpectedSymbols(String userId) {
+		Set<String> symbols = portfolioCache.getSymbols(userId);
+		if (symbols == null) {
+			symbols = new HashSet<>(positionRepository.findSymbolsByUserId(userId));
+		}
+		return symbols;
+	}
 
-		Set<String> symbols = new HashSet<>();
-		Holding holding = null;
-		for (Order order : orders) {
-			holding = portfolio.getHolding(order.getSymbol());
-			if (holding == null) {
-				holding = new Holding();
-				holding.setSymbol(order.getSymbol());
-				holding.setCurrency(order.getCurrency());
-				portfolio.addHolding(holding);
-				symbols.add(order.getSymbol());
+	/**
+	 * Waits for the quotes until the deadline. Past it, the quotes already
+	 * available are used instead, those fetched in the meantime included.
+	 * The fetch is recorded as the <code>quotes</code> stage, from its start
+	 * until it ended or was given up on.
+	 */
+	private List<Quote> awaitQuotes(CompletableFuture<List<Quote>> quotes, CompletableFuture<Long> fetched,
+			Set<String> symbols, long start, long deadline) {
+		String outcome = OUTCOME_SUCCESS;
+		try {
+			return quotes.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			outcome = OUTCOME_TIMEOUT;
+			logger.warn("Portfolio read budget exceeded, using the quotes available for: " + symbols);
+			meterRegistry.counter("portfolio.read.budget.exceeded").increment();
+			return quoteService.getAvailableQuotes(symbols);
+		} catch (InterruptedException e) {
+			outcome = OUTCOME_TIMEOUT;
+			Thread.currentThread().interrupt();
+			return quoteService.getAvailableQuotes(symbols);
+		} catch (ExecutionException e) {
+			outcome = OUTCOME_ERROR;
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new CompletionException(e.getCause());
+		} finally {
+			if (!symbols.isEmpty()) {
+				recordStage(READ, "quotes", outcome, start, fetched.getNow(System.nanoTime()));
 			}
-			holding.addOrder(order);
 		}
-		List<Quote> quotes = new ArrayList<>();
-		
-		if (symbols.size() > 0) {
-			quotes = quoteService.getMultipleQuotes(symbols);
+	}
+
+	/**
+	 * Records how long the positions took to load, how long the quotes were
+	 * waited for after that, and for how long the two overlapped.
+	 */
+	private void recordOverlap(long quotesStart, long quotesEnd, long loadStart, long loadEnd, long joined) {
+		long overlap = Math.max(0, Math.min(loadEnd, quotesEnd) - Math.max(loadStart, quotesStart));
+		recordStage(READ, "load", OUTCOME_SUCCESS, loadStart, loadEnd);
+		recordStage(READ, "quotes.wait", OUTCOME_SUCCESS, loadEnd, joined);
+		meterRegistry.timer("portfolio.read.overlap").record(overlap, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Records the number of symbols and orders of the portfolio read.
+	 */
+	private void recordSize(List<Position> positions) {
+		long orders = 0;
+		for (Position position : positions) {
+			orders += position.getOrderCount();
+		}
+		DistributionSummary.builder("portfolio.read.symbols")
+				.description("Symbols per portfolio read")
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(positions.size());
+		DistributionSummary.builder("portfolio.read.orders")
+				.description("Orders per user, of the portfolios read")
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(orders);
+	}
+
+	private void recordStage(String path, String stage, String outcome, long start) {
+		recordStage(path, stage, outcome, start, System.nanoTime());
+	}
+
+	/**
+	 * Records the duration of a stage of the read or write path, as the
+	 * <code>portfolio.read.stage</code> or
+	 * <code>portfolio.write.stage</code> timer.
+	 */
+	private void recordStage(String path, String stage, String outcome, long start, long end) {
+		Timer.builder("portfolio." + path + ".stage")
+				.tag("stage", stage)
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(meterRegistry)
+				.record(end - start, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Retrieves the portfolio for the given user without blocking the calling
+	 * thread. The positions are loaded on a separate scheduler, as JPA
+	 * blocks, and the quotes are retrieved without blocking. Past the
+	 * configured budget, the quotes available without fetching are used.
+	 *
+	 * @param userId
+	 *            The user id to retrieve for.
+	 * @return The portfolio.
+	 */
+	public Mono<Portfolio> getPortfolioReactive(String userId) {
+		logger.debug("Getting reactive portfolio for userId: " + userId);
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(readBudgetMillis);
+		return Mono.fromCallable(() -> portfolioCache.getPositions(userId, this::loadPositions))
+				.subscribeOn(Schedulers.elastic())
+				.flatMap(positions -> {
+					Portfolio portfolio = new Portfolio();
+					addHoldings(portfolio, positions);
+					Set<String> symbols = new HashSet<>(portfolio.getHoldings().keySet());
+					Mono<List<Quote>> quotes = symbols.isEmpty()
+							? Mono.just(Collections.<Quote>emptyList())
+							: quoteService.getQuotes(symbols)
+									.timeout(Duration.ofNanos(Math.max(0, deadline - System.nanoTime())),
+											Mono.fromCallable(() -> quoteService.getAvailableQuotes(symbols)));
+					return quotes.map(fetched -> valuePortfolio(portfolio, fetched));
+				});
+	}
+
+	/**
+	 * Loads the positions of the user, or aggregates them from the orders in
+	 * the database for a user whose positions have not been built yet.
+	 */
+	private List<Position> loadPositions(String userId) {
+		List<Position> positions = positionRepository.findByUserIdOrderBySymbolAsc(userId);
+		if (positions.isEmpty()) {
+			positions = positionService.aggregatePositions(userId);
 		}
+		return positions;
+	}
+
+	private void addHoldings(Portfolio portfolio, List<Position> positions) {
+		for (Position position : positions) {
+			// positions created for orders that were not saved hold no orders.
+			if (position.getOrderCount() > 0) {
+				portfolio.addHolding(position.toHolding());
+			}
+		}
+	}
 
+	/**
+	 * Sets the current value of the holdings from the quotes and aggregates
+	 * the portfolio values. Each holding is flagged with how current its
+	 * price is.
+	 */
+	private Portfolio valuePortfolio(Portfolio portfolio, List<Quote> quotes) {
+		for (Holding holding : portfolio.getHoldings().values()) {
+			holding.setPriceStatus(PriceStatus.UNAVAILABLE);
+		}
 		for (Quote quote : quotes) {
-			portfolio.getHolding(quote.getSymbol()).setCurrentValue(quote.getLastPrice());
+			Holding holding = portfolio.getHolding(quote.getSymbol());
+			// failed quotes carry no price, leave those holdings unvalued.
+			if (holding != null && quote.getLastPrice() != null) {
+				holding.setCurrentValue(quote.getLastPrice());
+				holding.setPriceStatus(Quote.STATUS_STALE.equals(quote.getStatus())
+						? PriceStatus.STALE : PriceStatus.CURRENT);
+			}
 		}
+		long aggregateStart = System.nanoTime();
 		portfolio.refreshTotalValue();
+		recordStage(READ, "aggregate", OUTCOME_SUCCESS, aggregateStart);
 		logger.debug("Portfolio: " + portfolio);
 		return portfolio;
 	}
@@ -130,7 +520,10 @@ public class PortfolioService {
 	*/
 
 	/**
-	 * Add an order to the repository and modify account balance.
+	 * Add an order to the repository, update the position for its symbol and
+	 * modify account balance. With the outbox enabled, the account
+	 * transaction is written to the outbox in the same database transaction
+	 * and the balance is modified once it has committed.
 	 * 
 	 * @param order
 	 *            the order to add.
@@ -144,56 +537,331 @@ public class PortfolioService {
 			order.setOrderFee(Order.DEFAULT_ORDER_FEE);
 			logger.debug("Adding Fee to order: " + order);
 		}
+		if (order.getCompletionDate() == null) {
+			// the order history pages by completion date.
+			order.setCompletionDate(new Date());
+		}
+		long buildStart = System.nanoTime();
 		Transaction transaction = new Transaction();
 		
 		if (order.getOrderType().equals(OrderType.BUY)) {
-			double amount = order.getQuantity()
-					* order.getPrice().doubleValue()
-					+ order.getOrderFee().doubleValue();
+			BigDecimal amount = order.getPrice()
+					.multiply(BigDecimal.valueOf(order.getQuantity()))
+					.add(order.getOrderFee());
 			
 			transaction.setAccountId(order.getAccountId());
-			transaction.setAmount(BigDecimal.valueOf(amount));
+			transaction.setAmount(amount);
 			transaction.setCurrency(order.getCurrency());
 			transaction.setDate(order.getCompletionDate());
 			transaction.setDescription(order.toString());
 			transaction.setType(TransactionType.DEBIT);
 			
 		} else if (order.getOrderType().equals(OrderType.SELL)){
-			double amount = order.getQuantity()
-					* order.getPrice().doubleValue()
-					- order.getOrderFee().doubleValue();
+			BigDecimal amount = order.getPrice()
+					.multiply(BigDecimal.valueOf(order.getQuantity()))
+					.subtract(order.getOrderFee());
 			
 			transaction.setAccountId(order.getAccountId());
-			transaction.setAmount(BigDecimal.valueOf(amount));
+			transaction.setAmount(amount);
 			transaction.setCurrency(order.getCurrency());
 			transaction.setDate(order.getCompletionDate());
 			transaction.setDescription(order.toString());
 			transaction.setType(TransactionType.CREDIT);
 			
 		}
+		recordStage(WRITE, "build", OUTCOME_SUCCESS, buildStart);
+
+		if (outboxEnabled) {
+			// committed with the order and delivered by the outbox dispatcher.
+			Order savedOrder = saveOrder(order);
+			long outboxStart = System.nanoTime();
+			outboxRepository.save(new OutboxTransaction(transaction, Collections.singletonList(savedOrder.getOrderId())));
+			recordStage(WRITE, "outbox", OUTCOME_SUCCESS, outboxStart);
+			portfolioCache.evict(savedOrder.getUserId());
+			eventPublisher.publishEvent(new OrderPlacedEvent(savedOrder));
+			return savedOrder;
+		}
+		if (callAccounts(transaction, bearerToken)) {
+			Order savedOrder = saveOrder(order);
+			portfolioCache.evict(savedOrder.getUserId());
+			eventPublisher.publishEvent(new OrderPlacedEvent(savedOrder));
+			return savedOrder;
+			
+		} else {
+			// TODO: throw exception - not enough funds!
+			// SK - Whats the expected behaviour?
+			logger.warn("PortfolioService:addOrder - decresing balance HTTP not ok: ");
+			return null;
+		}
+
+	}
+
+	/**
+	 * Adds a batch of orders of the given user. The orders are validated
+	 * together, the amounts of the valid orders are netted into one
+	 * transaction per account and currency, and the orders whose transaction
+	 * was accepted are saved together. With the outbox enabled, the
+	 * transactions are written to the outbox with the ids of the orders they
+	 * settle.
+	 * 
+	 * @param orders
+	 *            the orders to add.
+	 * @param userId
+	 *            the user placing the orders.
+	 * @param bearerToken
+	 *            the token to call the accounts service with.
+	 * @return the outcome of each order, in the order submitted.
+	 */
+	@Transactional
+	@Trace(async = true)
+	public List<OrderResult> addOrders(List<Order> orders, String userId, String bearerToken) {
+		logger.debug("Adding batch of " + orders.size() + " orders for user: " + userId);
+		OrderResult[] results = new OrderResult[orders.size()];
+		Map<String, List<Integer>> groups = new LinkedHashMap<>();
+		Date completionDate = new Date();
+		for (int i = 0; i < orders.size(); i++) {
+			Order order = orders.get(i);
+			String invalid = validate(order);
+			if (invalid != null) {
+				results[i] = new OrderResult(i, OrderResult.Status.REJECTED, order, invalid);
+				continue;
+			}
+			order.setUserId(userId);
+			if (order.getOrderFee() == null) {
+				order.setOrderFee(Order.DEFAULT_ORDER_FEE);
+			}
+			if (order.getCompletionDate() == null) {
+				order.setCompletionDate(completionDate);
+			}
+			groups.computeIfAbsent(order.getAccountId() + ":" + order.getCurrency(), key -> new ArrayList<>()).add(i);
+		}
+
+		List<Order> accepted = new ArrayList<>();
+		List<Integer> acceptedIndexes = new ArrayList<>();
+		Map<List<Integer>, Transaction> outboxed = new LinkedHashMap<>();
+		for (List<Integer> group : groups.values()) {
+			Transaction transaction = netTransaction(orders, group);
+			if (transaction != null && outboxEnabled) {
+				// written once the orders have their ids.
+				outboxed.put(group, transaction);
+			}
+			if (transaction == null || outboxEnabled || callAccounts(transaction, bearerToken)) {
+				for (Integer index : group) {
+					accepted.add(orders.get(index));
+					acceptedIndexes.add(index);
+				}
+			} else {
+				for (Integer index : group) {
+					results[index] = new OrderResult(index, OrderResult.Status.FAILED, orders.get(index),
+							"Account transaction not accepted");
+				}
+			}
+		}
+
+		if (!accepted.isEmpty()) {
+			lockPositions(accepted);
+			int i = 0;
+			for (Order savedOrder : orderRepository.saveAll(accepted)) {
+				positionService.applyOrder(savedOrder);
+				eventPublisher.publishEvent(new OrderPlacedEvent(savedOrder));
+				int index = acceptedIndexes.get(i++);
+				results[index] = new OrderResult(index, OrderResult.Status.CREATED, savedOrder, null);
+			}
+			for (Map.Entry<List<Integer>, Transaction> entry : outboxed.entrySet()) {
+				List<Integer> orderIds = new ArrayList<>();
+				for (Integer index : entry.getKey()) {
+					orderIds.add(results[index].getOrder().getOrderId());
+				}
+				outboxRepository.save(new OutboxTransaction(entry.getValue(), orderIds));
+			}
+			portfolioCache.evict(userId);
+		}
+		return Arrays.asList(results);
+	}
+
+	/**
+	 * Why the order cannot be placed, or null if it can.
+	 */
+	private String validate(Order order) {
+		if (order == null) {
+			return "Missing order";
+		} else if (order.getOrderType() == null) {
+			return "Missing orderType";
+		} else if (order.getSymbol() == null || order.getSymbol().isEmpty()) {
+			return "Missing symbol";
+		} else if (order.getAccountId() == null) {
+			return "Missing accountId";
+		} else if (order.getCurrency() == null) {
+			return "Missing currency";
+		} else if (order.getQuantity() == null || order.getQuantity() <= 0) {
+			return "Invalid quantity: " + order.getQuantity();
+		} else if (order.getPrice() == null || order.getPrice().signum() < 0) {
+			return "Invalid price: " + order.getPrice();
+		}
+		return null;
+	}
+
+	/**
+	 * Nets the orders of one account and currency into a single transaction.
+	 * 
+	 * @return the transaction, or null if the orders net to zero.
+	 */
+	private Transaction netTransaction(List<Order> orders, List<Integer> group) {
+		Order first = orders.get(group.get(0));
+		BigDecimal net = BigDecimal.ZERO;
+		for (Integer index : group) {
+			Order order = orders.get(index);
+			BigDecimal value = order.getPrice().multiply(new BigDecimal(order.getQuantity()));
+			if (order.getOrderType().equals(OrderType.BUY)) {
+				net = net.subtract(value.add(order.getOrderFee()));
+			} else {
+				net = net.add(value.subtract(order.getOrderFee()));
+			}
+		}
+		if (net.signum() == 0) {
+			return null;
+		}
+		Transaction transaction = new Transaction();
+		transaction.setAccountId(first.getAccountId());
+		transaction.setAmount(net.abs());
+		transaction.setCurrency(first.getCurrency());
+		transaction.setDate(first.getCompletionDate());
+		transaction.setDescription("Batch of " + group.size() + " orders");
+		transaction.setType(net.signum() < 0 ? TransactionType.DEBIT : TransactionType.CREDIT);
+		return transaction;
+	}
+
+	/**
+	 * Cancels orders whose account transaction the accounts service
+	 * declined: the orders are deleted and taken back out of their positions,
+	 * and an {@link OrderCancelledEvent} is published for each.
+	 * 
+	 * @param orderIds
+	 *            the orders to cancel.
+	 * @param reason
+	 *            why the orders are cancelled.
+	 */
+	@Transactional
+	public void cancelOrders(Collection<Integer> orderIds, String reason) {
+		List<Order> cancelled = new ArrayList<>();
+		orderRepository.findAllById(orderIds).forEach(cancelled::add);
+		// the positions are locked one symbol after the other.
+		cancelled.sort(Comparator.comparing(Order::getSymbol));
+		Set<String> users = new TreeSet<>();
+		for (Order order : cancelled) {
+			positionService.revertOrder(order);
+			orderRepository.delete(order);
+			users.add(order.getUserId());
+			eventPublisher.publishEvent(new OrderCancelledEvent(order, reason));
+			logger.warn("Order cancelled, account transaction declined: " + order);
+		}
+		users.forEach(portfolioCache::evict);
+	}
+
+	/**
+	 * Locks the positions of the orders before they are inserted, one symbol
+	 * after the other so that concurrent batches do not deadlock.
+	 */
+	private void lockPositions(List<Order> orders) {
+		Map<String, Order> bySymbol = new TreeMap<>();
+		for (Order order : orders) {
+			bySymbol.putIfAbsent(order.getSymbol(), order);
+		}
+		for (Order order : bySymbol.values()) {
+			positionService.lockPosition(order.getUserId(), order.getSymbol(), order.getCurrency());
+		}
+	}
+
+	/**
+	 * Saves the order and applies it to its position, recorded as the
+	 * <code>save</code> stage of the write path. The position is locked
+	 * before the order is inserted.
+	 */
+	private Order saveOrder(Order order) {
+		long start = System.nanoTime();
+		String outcome = OUTCOME_ERROR;
+		try {
+			positionService.lockPosition(order.getUserId(), order.getSymbol(), order.getCurrency());
+			Order savedOrder = orderRepository.save(order);
+			positionService.applyOrder(savedOrder);
+			outcome = OUTCOME_SUCCESS;
+			return savedOrder;
+		} finally {
+			recordStage(WRITE, "save", outcome, start);
+		}
+	}
+
+	/**
+	 * Posts the transaction, recorded as the <code>accounts</code> stage of
+	 * the write path.
+	 */
+	private boolean callAccounts(Transaction transaction, String bearerToken) {
+		long start = System.nanoTime();
+		String outcome = OUTCOME_ERROR;
+		try {
+			boolean accepted = postTransaction(transaction, bearerToken);
+			outcome = accepted ? OUTCOME_SUCCESS : OUTCOME_DECLINED;
+			return accepted;
+		} finally {
+			recordStage(WRITE, "accounts", outcome, start);
+		}
+	}
 
-		ClientResponse result = webClient
+	/**
+	 * Posts the transaction to the accounts service.
+	 * 
+	 * @param transaction
+	 *            the transaction to post.
+	 * @param bearerToken
+	 *            the token to call the accounts service with.
+	 * @return whether the accounts service accepted it.
+	 */
+	public boolean postTransaction(Transaction transaction, String bearerToken) {
+		return sendTransaction(transaction, bearerToken, null) == HttpStatus.OK;
+	}
+
+	/**
+	 * Posts the transaction to the accounts service, waiting at most for the
+	 * accounts timeout.
+	 * 
+	 * @param transaction
+	 *            the transaction to post.
+	 * @param bearerToken
+	 *            the token to call the accounts service with.
+	 * @param idempotencyKey
+	 *            identifies the transaction across attempts, so that the
+	 *            accounts service can drop a repeated post, or null.
+	 * @return the status the accounts service answered with.
+	 */
+	public HttpStatus sendTransaction(Transaction transaction, String bearerToken, String idempotencyKey) {
+		Duration timeout = Duration.ofMillis(accountsTimeoutMillis);
+		WebClient.RequestHeadersSpec<?> request = webClient
 				.post()
 				.uri("//"
 								+ accountsService
 								+ "/accounts/transaction")
                 .contentType(MediaType.APPLICATION_JSON)
                 .syncBody(transaction)
-				.header(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken)
+				.header(HttpHeaders.AUTHORIZATION, "Bearer " + bearerToken);
+		if (idempotencyKey != null) {
+			request = request.header(IDEMPOTENCY_KEY, idempotencyKey);
+		}
+		ClientResponse result = request
 				.exchange()
-				.block();
+				.block(timeout);
 		if (result.statusCode() == HttpStatus.OK) {
 			logger.info(String
 					.format("Account funds updated successfully for account: %s and new funds are: %s",
-							order.getAccountId(), result.bodyToMono(String.class).block()));
-			return orderRepository.save(order);
-			
-		} else {
-			// TODO: throw exception - not enough funds!
-			// SK - Whats the expected behaviour?
-			logger.warn("PortfolioService:addOrder - decresing balance HTTP not ok: ");
-			return null;
+							transaction.getAccountId(), result.bodyToMono(String.class).block(timeout)));
 		}
+		return result.statusCode();
+	}
 
+	/**
+	 * @return how long a call to the accounts service may take, in
+	 *         milliseconds.
+	 */
+	public long getAccountsTimeoutMillis() {
+		return accountsTimeoutMillis;
 	}
 }
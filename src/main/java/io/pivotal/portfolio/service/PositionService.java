@@ -0,0 +1,251 @@
+package io.pivotal.portfolio.service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.pivotal.portfolio.domain.Holding;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderAggregate;
+import io.pivotal.portfolio.domain.Portfolio;
+import io.pivotal.portfolio.domain.Position;
+import io.pivotal.portfolio.domain.PositionRebuildResult;
+import io.pivotal.portfolio.repository.OrderRepository;
+import io.pivotal.portfolio.repository.PositionRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Maintains the positions, the per user and symbol projection of the orders.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Service
+public class PositionService {
+	private static final Logger logger = LoggerFactory
+			.getLogger(PositionService.class);
+
+	private static final int MAX_CREATE_ATTEMPTS = 3;
+
+	@Autowired
+	private PositionRepository positionRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private PortfolioCache portfolioCache;
+
+	/**
+	 * Locks the position of the user and symbol until the end of the current
+	 * transaction, creating it if there is none. Called before an order is
+	 * inserted, so that concurrent orders of a position are inserted and
+	 * applied one after the other.
+	 * 
+	 * @param userId
+	 *            the user.
+	 * @param symbol
+	 *            the symbol.
+	 * @param currency
+	 *            the currency of a new position.
+	 * @return the locked position.
+	 */
+	@Transactional
+	public Position lockPosition(String userId, String symbol, String currency) {
+		Position position = positionRepository.findByUserIdAndSymbol(userId, symbol);
+		for (int attempt = 1; position == null; attempt++) {
+			try {
+				createPosition(userId, symbol, currency);
+			} catch (DataIntegrityViolationException e) {
+				// created concurrently by another order, lock that one.
+				if (attempt >= MAX_CREATE_ATTEMPTS) {
+					throw e;
+				}
+				logger.debug("Position created concurrently for user " + userId + ": " + symbol);
+			}
+			position = positionRepository.findByUserIdAndSymbol(userId, symbol);
+		}
+		return position;
+	}
+
+	/**
+	 * Inserts an empty position in its own transaction, so that a concurrent
+	 * insert of the same position fails without failing the order. The
+	 * positions of a user who has orders but no positions yet are backfilled
+	 * from the orders first, as the portfolio is only aggregated from the
+	 * orders while the user has no positions at all.
+	 */
+	private void createPosition(String userId, String symbol, String currency) {
+		TransactionTemplate template = new TransactionTemplate(transactionManager);
+		template.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+		template.execute(status -> {
+			List<Position> positions = new ArrayList<>();
+			if (positionRepository.countByUserId(userId) == 0) {
+				positions.addAll(aggregatePositions(userId));
+				if (!positions.isEmpty()) {
+					logger.info("Backfilling " + positions.size() + " positions for user: " + userId);
+				}
+			}
+			if (positions.stream().noneMatch(position -> symbol.equals(position.getSymbol()))) {
+				Position position = new Position();
+				position.setUserId(userId);
+				position.setSymbol(symbol);
+				position.setCurrency(currency);
+				positions.add(position);
+			}
+			positionRepository.saveAll(positions);
+			portfolioCache.evict(userId);
+			return null;
+		});
+	}
+
+	/**
+	 * Applies a saved order to the position of its user and symbol. Expected
+	 * to run in the same transaction that saves the order, after
+	 * {@link #lockPosition(String, String, String)}.
+	 * 
+	 * @param order
+	 *            the saved order.
+	 * @return the updated position.
+	 */
+	@Transactional
+	public Position applyOrder(Order order) {
+		Position position = lockPosition(order.getUserId(), order.getSymbol(), order.getCurrency());
+		position.apply(order);
+		return positionRepository.save(position);
+	}
+
+	/**
+	 * Takes a cancelled order back out of the position of its user and
+	 * symbol. Expected to run in the same transaction that deletes the order.
+	 * 
+	 * @param order
+	 *            the cancelled order.
+	 * @return the updated position.
+	 */
+	@Transactional
+	public Position revertOrder(Order order) {
+		Position position = lockPosition(order.getUserId(), order.getSymbol(), order.getCurrency());
+		position.revert(order);
+		return positionRepository.save(position);
+	}
+
+	/**
+	 * Computes the positions of a user from the orders aggregated by the
+	 * database, without loading the orders themselves.
+	 * 
+	 * @param userId
+	 *            the user.
+	 * @return the positions, not saved.
+	 */
+	public List<Position> aggregatePositions(String userId) {
+		Map<String, Position> positions = new LinkedHashMap<>();
+		for (OrderAggregate aggregate : orderRepository.aggregateByUserId(userId)) {
+			Position position = positions.get(aggregate.getSymbol());
+			if (position == null) {
+				position = new Position();
+				position.setUserId(userId);
+				position.setSymbol(aggregate.getSymbol());
+				position.setCurrency(aggregate.getCurrency());
+				positions.put(aggregate.getSymbol(), position);
+			}
+			position.apply(aggregate);
+		}
+		return new ArrayList<>(positions.values());
+	}
+
+	/**
+	 * Regenerates the positions of every user that has orders.
+	 * 
+	 * @return the result for each user.
+	 */
+	public List<PositionRebuildResult> rebuildAll() {
+		List<PositionRebuildResult> results = new ArrayList<>();
+		for (String userId : orderRepository.findUserIds()) {
+			results.add(rebuild(userId));
+		}
+		return results;
+	}
+
+	/**
+	 * Regenerates the positions of a user from the aggregated orders, in its
+	 * own transaction. The regenerated positions are checked against the holdings
+	 * built by replaying the orders, and only replace the stored positions if
+	 * they match.
+	 * 
+	 * @param userId
+	 *            the user to rebuild.
+	 * @return the outcome of the rebuild.
+	 */
+	public PositionRebuildResult rebuild(String userId) {
+		return new TransactionTemplate(transactionManager).execute(status -> {
+			PositionRebuildResult result = doRebuild(userId);
+			if (!result.isApplied()) {
+				status.setRollbackOnly();
+			}
+			return result;
+		});
+	}
+
+	private PositionRebuildResult doRebuild(String userId) {
+		// orders being added for the user wait until the rebuild commits.
+		List<Position> stored = positionRepository.lockByUserId(userId);
+		Map<String, Position> regenerated = new LinkedHashMap<>();
+		for (Position position : aggregatePositions(userId)) {
+			regenerated.put(position.getSymbol(), position);
+		}
+
+		List<Order> orders = orderRepository.findByUserIdOrderByCompletionDateAsc(userId);
+
+		Portfolio replayed = new Portfolio();
+		orders.forEach(replayed::addOrder);
+
+		PositionRebuildResult result = new PositionRebuildResult();
+		result.setUserId(userId);
+		result.setOrders(orders.size());
+		result.setPositions(regenerated.size());
+		for (Position position : regenerated.values()) {
+			if (!position.matches(replayed.getHolding(position.getSymbol()))) {
+				result.getMismatched().add(position.getSymbol());
+			}
+		}
+		for (Holding holding : replayed.getHoldings().values()) {
+			if (!regenerated.containsKey(holding.getSymbol())) {
+				result.getMismatched().add(holding.getSymbol());
+			}
+		}
+		for (Position position : stored) {
+			// positions created for orders that were not saved hold no orders.
+			if (position.getOrderCount() == 0 && !regenerated.containsKey(position.getSymbol())) {
+				continue;
+			}
+			Position rebuilt = regenerated.get(position.getSymbol());
+			if (rebuilt == null || !rebuilt.matches(position.toHolding())) {
+				result.getDrifted().add(position.getSymbol());
+			}
+		}
+		if (!result.getMismatched().isEmpty()) {
+			logger.warn("Positions not rebuilt, regenerated positions do not match replay: " + result);
+			return result;
+		}
+		positionRepository.deleteByUserId(userId);
+		positionRepository.saveAll(regenerated.values());
+		portfolioCache.evict(userId);
+		result.setApplied(true);
+		logger.info("Positions rebuilt: " + result);
+		return result;
+	}
+}
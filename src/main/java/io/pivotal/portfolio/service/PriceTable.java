@@ -0,0 +1,170 @@
+package io.pivotal.portfolio.service;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivotal.portfolio.domain.Quote;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Latest price of each symbol, as delivered by the price update stream.
+ *
+ * Reads are a single map lookup per symbol. A price is current for a maximum
+ * age after it was received; older prices are reported as stale so that the
+ * caller can fetch them from the quote service instead.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+public class PriceTable {
+
+	private final ConcurrentMap<String, StreamedQuote> prices = new ConcurrentHashMap<>();
+
+	private final long maxAgeMillis;
+	private Clock clock = Clock.systemUTC();
+
+	private final Counter applied;
+	private final Counter ignored;
+	private final Counter hits;
+	private final Counter staleHits;
+	private final Counter misses;
+	private final DistributionSummary staleness;
+
+	public PriceTable(@Value("${pivotal.quotes.stream.maxAgeSeconds:60}") long maxAgeSeconds,
+			MeterRegistry registry) {
+		this.maxAgeMillis = maxAgeSeconds * 1000;
+		this.applied = registry.counter("quotes.stream.updates", "result", "applied");
+		this.ignored = registry.counter("quotes.stream.updates", "result", "ignored");
+		this.hits = registry.counter("quotes.stream.requests", "result", "hit");
+		this.staleHits = registry.counter("quotes.stream.requests", "result", "stale");
+		this.misses = registry.counter("quotes.stream.requests", "result", "miss");
+		this.staleness = DistributionSummary.builder("quotes.stream.staleness")
+				.baseUnit("milliseconds")
+				.description("Age of the streamed prices read from the table")
+				.register(registry);
+		Gauge.builder("quotes.stream.size", prices, ConcurrentMap::size).register(registry);
+	}
+
+	/**
+	 * Stores a price update, unless a more recent quote of the symbol is
+	 * already in the table.
+	 *
+	 * @param quote
+	 *            the update.
+	 * @return true if the table was updated.
+	 */
+	public boolean update(Quote quote) {
+		if (quote == null || quote.getSymbol() == null || quote.getLastPrice() == null) {
+			ignored.increment();
+			return false;
+		}
+		StreamedQuote update = new StreamedQuote(quote, clock.millis());
+		StreamedQuote current = prices.merge(quote.getSymbol(), update,
+				(existing, received) -> received.isOlderThan(existing) ? existing : received);
+		if (current == update) {
+			applied.increment();
+			return true;
+		}
+		ignored.increment();
+		return false;
+	}
+
+	/**
+	 * Looks up the prices of the symbols.
+	 *
+	 * @param symbols
+	 *            the symbols to look up.
+	 * @return the current quotes, and the symbols that are stale or were
+	 *         never received.
+	 */
+	public Lookup lookup(Collection<String> symbols) {
+		long now = clock.millis();
+		Lookup lookup = new Lookup();
+		for (String symbol : symbols) {
+			StreamedQuote streamed = prices.get(symbol);
+			if (streamed == null) {
+				misses.increment();
+				lookup.unresolved.add(symbol);
+				continue;
+			}
+			long age = now - streamed.receivedAt;
+			staleness.record(age);
+			if (age <= maxAgeMillis) {
+				hits.increment();
+				lookup.quotes.add(streamed.quote);
+			} else {
+				staleHits.increment();
+				lookup.unresolved.add(symbol);
+			}
+		}
+		return lookup;
+	}
+
+	/**
+	 * @param symbol
+	 *            the symbol.
+	 * @return milliseconds since the last update of the symbol was received,
+	 *         or -1 if none was.
+	 */
+	public long getAge(String symbol) {
+		StreamedQuote streamed = prices.get(symbol);
+		return streamed == null ? -1 : clock.millis() - streamed.receivedAt;
+	}
+
+	void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Result of a table lookup.
+	 */
+	public static class Lookup {
+		private final List<Quote> quotes = new ArrayList<>();
+		private final Set<String> unresolved = new LinkedHashSet<>();
+
+		/**
+		 * @return the current quotes found.
+		 */
+		public List<Quote> getQuotes() {
+			return quotes;
+		}
+
+		/**
+		 * @return the symbols missing from the table or stale in it.
+		 */
+		public Set<String> getUnresolved() {
+			return unresolved;
+		}
+	}
+
+	private static final class StreamedQuote {
+		private final Quote quote;
+		private final long receivedAt;
+
+		private StreamedQuote(Quote quote, long receivedAt) {
+			this.quote = quote;
+			this.receivedAt = receivedAt;
+		}
+
+		/**
+		 * Updates can arrive out of order; the quote timestamp decides.
+		 */
+		private boolean isOlderThan(StreamedQuote other) {
+			return quote.getTimestamp() != null && other.quote.getTimestamp() != null
+					&& quote.getTimestamp().before(other.quote.getTimestamp());
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package io.pivotal.portfolio.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.pivotal.portfolio.domain.Quote;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+/**
+ * Combines the quote fetches of concurrent requests into batches.
+ *
+ * A batch is fetched when its window ends, or as soon as it reaches its
+ * maximum number of symbols, with all the symbols collected meanwhile in one
+ * call. Every caller gets the quotes of its own symbols from the combined
+ * result.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+public class QuoteBatcher {
+	private static final Logger logger = LoggerFactory.getLogger(QuoteBatcher.class);
+
+	private final Duration window;
+	private final int maxSymbols;
+	private final Function<List<String>, Mono<List<Quote>>> fetcher;
+
+	private final Timer latency;
+	private final DistributionSummary batchSymbols;
+	private final DistributionSummary batchCallers;
+
+	private final Object lock = new Object();
+	private Batch current;
+
+	/**
+	 * @param windowMillis
+	 *            how long a batch collects symbols for.
+	 * @param maxSymbols
+	 *            the number of symbols that closes a batch before its window
+	 *            ends.
+	 * @param fetcher
+	 *            fetches the quotes of a batch.
+	 * @param registry
+	 *            where to record the batch metrics.
+	 */
+	public QuoteBatcher(long windowMillis, int maxSymbols, Function<List<String>, Mono<List<Quote>>> fetcher,
+			MeterRegistry registry) {
+		this.window = Duration.ofMillis(windowMillis);
+		this.maxSymbols = maxSymbols;
+		this.fetcher = fetcher;
+		this.latency = Timer.builder("quotes.batch.latency")
+				.description("Time to fetch a batch of quotes, including the batch window")
+				.register(registry);
+		this.batchSymbols = DistributionSummary.builder("quotes.batch.symbols")
+				.description("Number of symbols fetched per batch")
+				.register(registry);
+		this.batchCallers = DistributionSummary.builder("quotes.batch.callers")
+				.description("Number of callers sharing a batch")
+				.register(registry);
+	}
+
+	/**
+	 * Fetches the quotes of the symbols as part of the current batch.
+	 *
+	 * @param symbols
+	 *            the symbols to fetch.
+	 * @return the quotes of the symbols.
+	 */
+	public Mono<List<Quote>> fetch(Collection<String> symbols) {
+		Batch batch;
+		boolean leader = false;
+		boolean full = false;
+		synchronized (lock) {
+			if (current == null) {
+				current = new Batch();
+				leader = true;
+			}
+			batch = current;
+			batch.symbols.addAll(symbols);
+			batch.callers++;
+			if (batch.symbols.size() >= maxSymbols) {
+				current = null;
+				full = true;
+			}
+		}
+		if (full) {
+			run(batch);
+		} else if (leader) {
+			Mono.delay(window).subscribe(tick -> run(batch));
+		}
+		return Mono.fromFuture(batch.result).map(fetched -> {
+			List<Quote> quotes = new ArrayList<>();
+			for (Quote quote : fetched) {
+				if (quote != null && symbols.contains(quote.getSymbol())) {
+					quotes.add(quote);
+				}
+			}
+			return quotes;
+		});
+	}
+
+	private void run(Batch batch) {
+		if (!batch.started.compareAndSet(false, true)) {
+			return;
+		}
+		List<String> symbols;
+		int callers;
+		synchronized (lock) {
+			if (current == batch) {
+				current = null;
+			}
+			symbols = new ArrayList<>(batch.symbols);
+			callers = batch.callers;
+		}
+		logger.debug("Fetching batch of {} symbols for {} callers", symbols.size(), callers);
+		Mono<List<Quote>> fetch;
+		try {
+			fetch = fetcher.apply(symbols);
+		} catch (RuntimeException e) {
+			fetch = Mono.error(e);
+		}
+		fetch.defaultIfEmpty(Collections.<Quote>emptyList())
+				.doFinally(signal -> {
+					latency.record(System.nanoTime() - batch.createdAt, TimeUnit.NANOSECONDS);
+					batchSymbols.record(symbols.size());
+					batchCallers.record(callers);
+				})
+				.subscribe(batch.result::complete, batch.result::completeExceptionally);
+	}
+
+	private static final class Batch {
+		private final long createdAt = System.nanoTime();
+		private final Set<String> symbols = new LinkedHashSet<>();
+		private final AtomicBoolean started = new AtomicBoolean();
+		private final CompletableFuture<List<Quote>> result = new CompletableFuture<>();
+		private int callers;
+	}
+}
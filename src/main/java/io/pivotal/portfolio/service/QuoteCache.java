@@ -0,0 +1,197 @@
+package io.pivotal.portfolio.service;
+
+import java.time.Clock;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.pivotal.portfolio.domain.Quote;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Process wide cache of the latest quote of each symbol.
+ *
+ * Quotes are fresh for a time to live, which is longer while the market is
+ * closed. Stale quotes are still served, and handed out once for a refresh
+ * so that only one refresh per symbol is in progress at a time.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+public class QuoteCache {
+
+	private static final LocalTime MARKET_OPEN = LocalTime.of(9, 30);
+	private static final LocalTime MARKET_CLOSE = LocalTime.of(16, 0);
+
+	private final ConcurrentMap<String, CachedQuote> quotes = new ConcurrentHashMap<>();
+	private final Set<String> refreshing = ConcurrentHashMap.newKeySet();
+
+	private final long ttlMillis;
+	private final long closedTtlMillis;
+	private final ZoneId marketZone;
+	private Clock clock = Clock.systemUTC();
+
+	private final Counter hits;
+	private final Counter staleHits;
+	private final Counter misses;
+	private final DistributionSummary staleness;
+
+	public QuoteCache(@Value("${pivotal.quotes.cache.ttlSeconds:15}") long ttlSeconds,
+			@Value("${pivotal.quotes.cache.closedTtlSeconds:900}") long closedTtlSeconds,
+			@Value("${pivotal.quotes.cache.marketZone:America/New_York}") String marketZone,
+			MeterRegistry registry) {
+		this.ttlMillis = ttlSeconds * 1000;
+		this.closedTtlMillis = closedTtlSeconds * 1000;
+		this.marketZone = ZoneId.of(marketZone);
+		this.hits = registry.counter("quotes.cache.requests", "result", "hit");
+		this.staleHits = registry.counter("quotes.cache.requests", "result", "stale");
+		this.misses = registry.counter("quotes.cache.requests", "result", "miss");
+		this.staleness = DistributionSummary.builder("quotes.cache.staleness")
+				.baseUnit("milliseconds")
+				.description("Age of the stale quotes served from the cache")
+				.register(registry);
+		Gauge.builder("quotes.cache.size", quotes, ConcurrentMap::size).register(registry);
+	}
+
+	/**
+	 * Looks up the quotes of the symbols.
+	 *
+	 * @param symbols
+	 *            the symbols to look up.
+	 * @return the cached quotes, the symbols to refresh and the missing
+	 *         symbols.
+	 */
+	public Lookup lookup(Collection<String> symbols) {
+		long now = clock.millis();
+		long ttl = isMarketOpen(Instant.ofEpochMilli(now)) ? ttlMillis : closedTtlMillis;
+		Lookup lookup = new Lookup();
+		for (String symbol : symbols) {
+			CachedQuote cached = quotes.get(symbol);
+			if (cached == null) {
+				misses.increment();
+				lookup.missing.add(symbol);
+				continue;
+			}
+			lookup.quotes.add(cached.quote);
+			long age = now - cached.fetchedAt;
+			if (age <= ttl) {
+				hits.increment();
+			} else {
+				staleHits.increment();
+				staleness.record(age);
+				if (refreshing.add(symbol)) {
+					lookup.stale.add(symbol);
+				}
+			}
+		}
+		return lookup;
+	}
+
+	/**
+	 * Returns the cached quote of the symbol, fresh or stale, without
+	 * counting a request or handing it out for refresh.
+	 *
+	 * @param symbol
+	 *            the symbol.
+	 * @return the quote, or null if not cached.
+	 */
+	public Quote get(String symbol) {
+		CachedQuote cached = quotes.get(symbol);
+		return cached == null ? null : cached.quote;
+	}
+
+	/**
+	 * Stores the quotes fetched from the quote service.
+	 *
+	 * @param fetched
+	 *            the quotes.
+	 */
+	public void put(Collection<Quote> fetched) {
+		long now = clock.millis();
+		for (Quote quote : fetched) {
+			if (quote != null && quote.getSymbol() != null && quote.getLastPrice() != null) {
+				quotes.put(quote.getSymbol(), new CachedQuote(quote, now));
+			}
+		}
+	}
+
+	/**
+	 * Releases the symbols handed out for refresh by {@link #lookup(Collection)},
+	 * whether the refresh succeeded or not.
+	 *
+	 * @param symbols
+	 *            the refreshed symbols.
+	 */
+	public void refreshed(Collection<String> symbols) {
+		refreshing.removeAll(symbols);
+	}
+
+	boolean isMarketOpen(Instant instant) {
+		ZonedDateTime time = instant.atZone(marketZone);
+		if (time.getDayOfWeek() == DayOfWeek.SATURDAY || time.getDayOfWeek() == DayOfWeek.SUNDAY) {
+			return false;
+		}
+		LocalTime localTime = time.toLocalTime();
+		return !localTime.isBefore(MARKET_OPEN) && localTime.isBefore(MARKET_CLOSE);
+	}
+
+	void setClock(Clock clock) {
+		this.clock = clock;
+	}
+
+	/**
+	 * Result of a cache lookup.
+	 */
+	public static class Lookup {
+		private final List<Quote> quotes = new ArrayList<>();
+		private final Set<String> stale = new LinkedHashSet<>();
+		private final Set<String> missing = new LinkedHashSet<>();
+
+		/**
+		 * @return the fresh and stale quotes found.
+		 */
+		public List<Quote> getQuotes() {
+			return quotes;
+		}
+
+		/**
+		 * @return the stale symbols this caller should refresh.
+		 */
+		public Set<String> getStale() {
+			return stale;
+		}
+
+		/**
+		 * @return the symbols not in the cache.
+		 */
+		public Set<String> getMissing() {
+			return missing;
+		}
+	}
+
+	private static final class CachedQuote {
+		private final Quote quote;
+		private final long fetchedAt;
+
+		private CachedQuote(Quote quote, long fetchedAt) {
+			this.quote = quote;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+}
@@ -1,30 +1,58 @@
 package io.pivotal.portfolio.service;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
 
 import com.newrelic.api.agent.Trace;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.pivotal.portfolio.domain.Quote;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.cloud.context.config.annotation.RefreshScope;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.stereotype.Service;
 import org.springframework.web.client.RestTemplate;
 
 import com.netflix.hystrix.contrib.javanica.annotation.HystrixCommand;
 import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import static org.springframework.security.oauth2.client.web.reactive.function.client.ServletOAuth2AuthorizedClientExchangeFilterFunction.oauth2AuthorizedClient;
 
 /**
- * Retrieves quotes from the quote service. Uses hystrix to manage failure.
+ * Retrieves quotes from the quote service. Uses hystrix to manage failure and
+ * a shared cache to avoid fetching the same quotes for every request.
+ * Concurrent requests for a symbol share a single fetch, and the fetches of
+ * concurrent requests can be combined into batches.
+ * 
+ * When <code>pivotal.quotes.source</code> is <code>stream</code>, prices are
+ * read from the {@link PriceTable} fed by the price update stream, and only
+ * the symbols it has no current price for are fetched.
+ * 
+ * The prices fetched are recorded in the {@link LastPriceStore}, and quotes
+ * that cannot be fetched fall back to the last known price, in STALE state.
  * 
  * @author David Ferreira Pinto
  *
@@ -41,6 +69,72 @@ public class QuoteRemoteCallService {
 	@Autowired
 	private WebClient webClient;
 
+	/**
+	 * Quotes already fetched, shared by all requests.
+	 */
+	@Autowired
+	private QuoteCache quoteCache;
+
+	/**
+	 * Runs the refreshes of stale quotes.
+	 */
+	@Autowired
+	@Qualifier("quoteRefreshExecutor")
+	private TaskExecutor taskExecutor;
+
+	@Autowired
+	private MeterRegistry meterRegistry;
+
+	/**
+	 * Prices delivered by the price update stream.
+	 */
+	@Autowired
+	private PriceTable priceTable;
+
+	/**
+	 * Last known prices, for the quotes that cannot be fetched.
+	 */
+	@Autowired
+	private LastPriceStore lastPriceStore;
+
+	@Value("${pivotal.quotes.source:remote}")
+	private String quotesSource = "remote";
+
+	/**
+	 * Quotes being fetched, for callers needing the same symbols to join.
+	 */
+	private final ConcurrentMap<String, CompletableFuture<Quote>> inFlight = new ConcurrentHashMap<>();
+
+	@Value("${pivotal.quotes.batch.enabled:false}")
+	private boolean batchEnabled;
+
+	@Value("${pivotal.quotes.batch.windowMillis:3}")
+	private long batchWindowMillis;
+
+	@Value("${pivotal.quotes.batch.maxSymbols:100}")
+	private int batchMaxSymbols;
+
+	/**
+	 * Combines the fetches of concurrent requests, when enabled.
+	 */
+	private QuoteBatcher batcher;
+
+	@Value("${pivotal.quotes.chunk.size:50}")
+	private int chunkSize = 50;
+
+	@Value("${pivotal.quotes.chunk.parallelism:4}")
+	private int chunkParallelism = 4;
+
+	@Value("${pivotal.quotes.chunk.timeoutMillis:2000}")
+	private long chunkTimeoutMillis = 2000;
+
+	@PostConstruct
+	public void init() {
+		if (batchEnabled) {
+			batcher = new QuoteBatcher(batchWindowMillis, batchMaxSymbols, this::fetchMultipleQuotes, meterRegistry);
+		}
+	}
+
 	/**
 	 * Retrieve up to date quotes.
 	 * 
@@ -52,13 +146,24 @@ public class QuoteRemoteCallService {
 	@HystrixCommand(fallbackMethod = "getQuoteFallback")
 	public Quote getQuote(String symbol) {
 		logger.debug("Fetching quote: " + symbol);
-		Quote quote = webClient
+		if (isStreamSource()) {
+			PriceTable.Lookup lookup = priceTable.lookup(Collections.singleton(symbol));
+			if (!lookup.getQuotes().isEmpty()) {
+				return lookup.getQuotes().get(0);
+			}
+		}
+		return singleFlight(Collections.singletonList(symbol),
+				owned -> requestQuote(symbol).map(quote -> Collections.singletonList(quote)))
+				.block()
+				.get(symbol);
+	}
+
+	private Mono<Quote> requestQuote(String symbol) {
+		return webClient
 				.get()
 				.uri("//" + quotesService + "/quote/" + symbol)
 				.retrieve()
-				.bodyToMono(Quote.class)
-				.block();
-		return quote;
+				.bodyToMono(Quote.class);
 	}
 
 	/**
@@ -66,17 +171,21 @@ public class QuoteRemoteCallService {
 	 * 
 	 * @param symbol
 	 *            the symbol of the quote to fetch.
-	 * @return Empty quote in FAILED state.
+	 * @return the last known price in STALE state, or an empty quote in
+	 *         FAILED state.
 	 */
-	@SuppressWarnings("unused")
 	private Quote getQuoteFallback(String symbol) {
 		logger.debug("Fetching fallback quote for: " + symbol);
 		// Quote quote =
 		// restTemplate.getForObject("http://quotes/quote/{symbol}",
 		// Quote.class, symbol);
-		Quote quote = new Quote();
+		Quote quote = lastPriceStore.getQuote(symbol);
+		if (quote != null) {
+			return quote;
+		}
+		quote = new Quote();
 		quote.setSymbol(symbol);
-		quote.setStatus("FAILED");
+		quote.setStatus(Quote.STATUS_FAILED);
 		return quote;
 	}
 	/**
@@ -88,25 +197,248 @@ public class QuoteRemoteCallService {
 	@Trace(async = true)
 	public List<Quote> getMultipleQuotes(String symbols) {
 		logger.debug("retrieving multiple quotes: " + symbols);
+		List<Quote> quotes = requestQuotes(symbols).block();
+		logger.debug("Received quotes: {}",quotes);
+		return quotes;
+		
+	}
+
+	private Mono<List<Quote>> requestQuotes(String symbols) {
 		ParameterizedTypeReference<List<Quote>> typeRef = new ParameterizedTypeReference<List<Quote>>() {};
-		List<Quote> quotes = webClient
+		return webClient
 				.get()
 				.uri("//" + quotesService + "/v1/quotes?q=" + symbols)
 				.retrieve()
-				.bodyToMono(typeRef)
-				.block();
-		logger.debug("Received quotes: {}",quotes);
-		return quotes;
-		
+				.bodyToMono(typeRef);
 	}
 	/**
 	 * Retrieve multiple quotes.
 	 * 
 	 * @param symbols
 	 * @return
+	 * @see #getQuotes(Collection)
 	 */
 	public List<Quote> getMultipleQuotes(Collection<String> symbols) {
 		logger.debug("Fetching multiple quotes array: {} ",symbols);
+		return getQuotes(symbols).block();
+	}
+
+	/**
+	 * Retrieve multiple quotes without blocking.
+	 * 
+	 * Streamed prices are served first, when the stream is the source.
+	 * 
+	 * @param symbols
+	 *            the symbols to retrieve.
+	 * @return the quotes.
+	 */
+	public Mono<List<Quote>> getQuotes(Collection<String> symbols) {
+		if (!isStreamSource()) {
+			return getCachedQuotes(symbols);
+		}
+		PriceTable.Lookup lookup = priceTable.lookup(symbols);
+		if (lookup.getUnresolved().isEmpty()) {
+			return Mono.just(new ArrayList<>(lookup.getQuotes()));
+		}
+		return getCachedQuotes(lookup.getUnresolved()).map(fetched -> {
+			List<Quote> quotes = new ArrayList<>(lookup.getQuotes());
+			quotes.addAll(fetched);
+			return quotes;
+		});
+	}
+
+	/**
+	 * Quotes are served from the cache where possible, and only the symbols
+	 * missing from it are fetched. Stale quotes are served as they are while
+	 * they are refreshed in the background.
+	 * 
+	 * @param symbols
+	 *            the symbols to retrieve.
+	 * @return the quotes.
+	 */
+	private Mono<List<Quote>> getCachedQuotes(Collection<String> symbols) {
+		QuoteCache.Lookup lookup = quoteCache.lookup(symbols);
+		if (!lookup.getStale().isEmpty()) {
+			refreshQuotes(lookup.getStale());
+		}
+		if (lookup.getMissing().isEmpty()) {
+			return Mono.just(new ArrayList<>(lookup.getQuotes()));
+		}
+		return fetchQuotes(lookup.getMissing()).map(fetched -> {
+			List<Quote> quotes = new ArrayList<>(lookup.getQuotes());
+			quotes.addAll(fetched);
+			return quotes;
+		});
+	}
+
+	/**
+	 * Retrieve the quotes available without fetching: the streamed prices,
+	 * then the cached quotes, then the last known prices in STALE state.
+	 * Symbols with none of these are left out.
+	 * 
+	 * @param symbols
+	 *            the symbols to retrieve.
+	 * @return the quotes.
+	 */
+	public List<Quote> getAvailableQuotes(Collection<String> symbols) {
+		List<Quote> quotes = new ArrayList<>();
+		Collection<String> remaining = symbols;
+		if (isStreamSource()) {
+			PriceTable.Lookup lookup = priceTable.lookup(symbols);
+			quotes.addAll(lookup.getQuotes());
+			remaining = lookup.getUnresolved();
+		}
+		for (String symbol : remaining) {
+			Quote quote = quoteCache.get(symbol);
+			if (quote == null) {
+				quote = lastPriceStore.getQuote(symbol);
+			}
+			if (quote != null) {
+				quotes.add(quote);
+			}
+		}
+		return quotes;
+	}
+
+	private boolean isStreamSource() {
+		return "stream".equals(quotesSource);
+	}
+
+	private void refreshQuotes(Collection<String> symbols) {
+		try {
+			taskExecutor.execute(() -> {
+				try {
+					fetchQuotes(symbols).block();
+				} catch (RuntimeException e) {
+					logger.warn("Failed to refresh quotes: " + symbols, e);
+				} finally {
+					quoteCache.refreshed(symbols);
+				}
+			});
+		} catch (TaskRejectedException e) {
+			logger.debug("Quote refresh rejected, will retry on next request: {}", symbols);
+			quoteCache.refreshed(symbols);
+		}
+	}
+
+	private Mono<List<Quote>> fetchQuotes(Collection<String> symbols) {
+		Function<List<String>, Mono<List<Quote>>> fetcher = batcher != null ? batcher::fetch : this::fetchMultipleQuotes;
+		return singleFlight(symbols, fetcher).map(quotes -> new ArrayList<>(quotes.values()));
+	}
+
+	/**
+	 * Fetches the quotes in chunks of at most <code>chunkSize</code> symbols,
+	 * with up to <code>chunkParallelism</code> chunks in flight. A chunk that
+	 * fails or times out yields FAILED quotes for its own symbols only.
+	 */
+	private Mono<List<Quote>> fetchMultipleQuotes(List<String> symbols) {
+		List<List<String>> chunks = new ArrayList<>();
+		for (int i = 0; i < symbols.size(); i += chunkSize) {
+			chunks.add(symbols.subList(i, Math.min(i + chunkSize, symbols.size())));
+		}
+		return Flux.fromIterable(chunks)
+				.flatMap(this::fetchChunk, chunkParallelism)
+				.flatMapIterable(quotes -> quotes)
+				.collectList();
+	}
+
+	private Mono<List<Quote>> fetchChunk(List<String> chunk) {
+		meterRegistry.counter("quotes.remote.fetches").increment();
+		meterRegistry.counter("quotes.remote.symbols").increment(chunk.size());
+		return requestQuotes(join(chunk))
+				.timeout(Duration.ofMillis(chunkTimeoutMillis))
+				.defaultIfEmpty(Collections.<Quote>emptyList())
+				.onErrorResume(e -> {
+					logger.warn("Failed to fetch quotes: " + chunk, e);
+					meterRegistry.counter("quotes.remote.failures").increment(chunk.size());
+					return Mono.just(failedQuotes(chunk));
+				});
+	}
+
+	private List<Quote> failedQuotes(List<String> symbols) {
+		List<Quote> quotes = new ArrayList<>();
+		for (String symbol : symbols) {
+			quotes.add(getQuoteFallback(symbol));
+		}
+		return quotes;
+	}
+
+	/**
+	 * Fetches the quotes of the symbols, joining the fetches already in
+	 * progress for any of them and starting the fetcher for the rest.
+	 * 
+	 * @param symbols
+	 *            the symbols to fetch.
+	 * @param fetcher
+	 *            fetches the symbols no other caller is fetching.
+	 * @return the quotes found, by symbol.
+	 */
+	private Mono<Map<String, Quote>> singleFlight(Collection<String> symbols, Function<List<String>, Mono<List<Quote>>> fetcher) {
+		Map<String, CompletableFuture<Quote>> futures = new LinkedHashMap<>();
+		Map<String, CompletableFuture<Quote>> owned = new LinkedHashMap<>();
+		for (String symbol : symbols) {
+			CompletableFuture<Quote> future = new CompletableFuture<>();
+			CompletableFuture<Quote> existing = inFlight.putIfAbsent(symbol, future);
+			if (existing == null) {
+				owned.put(symbol, future);
+				futures.put(symbol, future);
+			} else {
+				futures.put(symbol, existing);
+			}
+		}
+		meterRegistry.counter("quotes.singleflight.joined").increment(symbols.size() - owned.size());
+		if (!owned.isEmpty()) {
+			// started eagerly, other callers may already be waiting on it.
+			Mono<List<Quote>> fetch;
+			try {
+				fetch = fetcher.apply(new ArrayList<>(owned.keySet()));
+			} catch (RuntimeException e) {
+				fetch = Mono.error(e);
+			}
+			fetch.defaultIfEmpty(Collections.<Quote>emptyList())
+					.subscribe(fetched -> complete(owned, fetched), e -> {
+						owned.values().forEach(future -> future.completeExceptionally(e));
+						owned.forEach(inFlight::remove);
+					});
+		}
+		return Mono.fromFuture(CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])))
+				.then(Mono.fromCallable(() -> {
+					Map<String, Quote> quotes = new LinkedHashMap<>();
+					futures.forEach((symbol, future) -> {
+						Quote quote = future.join();
+						if (quote != null) {
+							quotes.put(symbol, quote);
+						}
+					});
+					return quotes;
+				}));
+	}
+
+	private void complete(Map<String, CompletableFuture<Quote>> owned, List<Quote> fetched) {
+		// fallback quotes are not current, they must not be cached as such.
+		List<Quote> current = new ArrayList<>();
+		for (Quote quote : fetched) {
+			if (quote != null && !Quote.STATUS_STALE.equals(quote.getStatus())) {
+				current.add(quote);
+			}
+		}
+		quoteCache.put(current);
+		lastPriceStore.record(current);
+		Map<String, Quote> bySymbol = new HashMap<>();
+		for (Quote quote : fetched) {
+			if (quote != null) {
+				bySymbol.put(quote.getSymbol(), quote);
+			}
+		}
+		// a single quote answers a single symbol, whatever its case.
+		if (owned.size() == 1 && fetched.size() == 1) {
+			bySymbol.put(owned.keySet().iterator().next(), fetched.get(0));
+		}
+		owned.forEach((symbol, future) -> future.complete(bySymbol.get(symbol)));
+		owned.forEach(inFlight::remove);
+	}
+
+	private String join(Collection<String> symbols) {
 		StringBuilder builder = new StringBuilder();
 		for (Iterator<String> i = symbols.iterator(); i.hasNext();) {
 			builder.append(i.next());
@@ -114,6 +446,6 @@ public class QuoteRemoteCallService {
 				builder.append(",");
 			}
 		}
-		return getMultipleQuotes(builder.toString());
+		return builder.toString();
 	}
 }
@@ -0,0 +1,46 @@
+package io.pivotal.portfolio.service;
+
+import io.pivotal.portfolio.config.QuoteUpdatesBinding;
+import io.pivotal.portfolio.domain.Quote;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.cloud.stream.annotation.EnableBinding;
+import org.springframework.cloud.stream.annotation.StreamListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Feeds the price updates received on the <code>quoteUpdates</code> binding
+ * into the {@link PriceTable}. Only active when
+ * <code>pivotal.quotes.source</code> is <code>stream</code>.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Component
+@EnableBinding(QuoteUpdatesBinding.class)
+@ConditionalOnProperty(name = "pivotal.quotes.source", havingValue = "stream")
+public class QuoteStreamListener {
+	private static final Logger logger = LoggerFactory
+			.getLogger(QuoteStreamListener.class);
+
+	private final PriceTable priceTable;
+
+	public QuoteStreamListener(PriceTable priceTable) {
+		this.priceTable = priceTable;
+	}
+
+	/**
+	 * Applies a price update.
+	 * 
+	 * @param quote
+	 *            the latest quote of a symbol.
+	 */
+	@StreamListener(QuoteUpdatesBinding.QUOTE_UPDATES)
+	public void onQuote(Quote quote) {
+		if (!priceTable.update(quote)) {
+			logger.debug("Price update ignored: {}", quote);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package io.pivotal.portfolio.perf;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local stand-ins for the quotes and accounts services, on the JDK HTTP
+ * server, each behaving according to a {@link LatencyProfile}.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public final class FakeServices {
+
+	private FakeServices() {
+	}
+
+	/**
+	 * Starts a fake quotes service, answering <code>/quote/{symbol}</code>
+	 * and <code>/v1/quotes?q=</code> with a stable price per symbol.
+	 * 
+	 * @param profile
+	 *            how the service behaves.
+	 * @return the started server, on a free port.
+	 */
+	public static HttpServer quotes(LatencyProfile profile) throws IOException {
+		return start(profile, exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			if (path.startsWith("/quote/")) {
+				return quote(path.substring("/quote/".length()));
+			}
+			String query = exchange.getRequestURI().getRawQuery();
+			String symbols = query == null ? "" : URLDecoder.decode(query.replaceFirst("^q=", ""), "UTF-8");
+			StringBuilder body = new StringBuilder("[");
+			for (String symbol : symbols.split(",")) {
+				if (!symbol.isEmpty()) {
+					if (body.length() > 1) {
+						body.append(',');
+					}
+					body.append(quote(symbol));
+				}
+			}
+			return body.append(']').toString();
+		});
+	}
+
+	/**
+	 * Starts a fake accounts service, accepting every transaction. It also
+	 * answers the client credentials token requests of the outbox.
+	 * 
+	 * @param profile
+	 *            how the service behaves.
+	 * @return the started server, on a free port.
+	 */
+	public static HttpServer accounts(LatencyProfile profile) throws IOException {
+		return start(profile, exchange -> "/token".equals(exchange.getRequestURI().getPath())
+				? "{\"access_token\":\"perf\",\"token_type\":\"bearer\",\"expires_in\":3600}"
+				: "1000000.00");
+	}
+
+	private static String quote(String symbol) {
+		BigDecimal price = BigDecimal.valueOf(1000 + Math.floorMod(symbol.hashCode(), 100000), 2);
+		return "{\"Symbol\":\"" + symbol + "\",\"Name\":\"" + symbol + "\",\"LastPrice\":" + price
+				+ ",\"Status\":\"SUCCESS\"}";
+	}
+
+	private static HttpServer start(LatencyProfile profile, Responder responder) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new ProfiledHandler(profile, responder));
+		server.start();
+		return server;
+	}
+
+	private interface Responder {
+		String respond(HttpExchange exchange) throws IOException;
+	}
+
+	private static final class ProfiledHandler implements HttpHandler {
+		private final LatencyProfile profile;
+		private final Responder responder;
+
+		private ProfiledHandler(LatencyProfile profile, Responder responder) {
+			this.profile = profile;
+			this.responder = responder;
+		}
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try (InputStream in = exchange.getRequestBody()) {
+				byte[] buffer = new byte[4096];
+				while (in.read(buffer) != -1) {
+					// the request body is not needed.
+				}
+				profile.delay();
+				if (profile.fail()) {
+					exchange.sendResponseHeaders(500, -1);
+					return;
+				}
+				byte[] body = responder.respond(exchange).getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().add("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length);
+				try (OutputStream out = exchange.getResponseBody()) {
+					out.write(body);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				exchange.sendResponseHeaders(503, -1);
+			} finally {
+				exchange.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package io.pivotal.portfolio.perf;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How a fake service behaves: a base latency, a random jitter added to it
+ * and the rate of requests answered with an error.
+ * 
+ * Written as <code>base,jitter,errorRate</code>, for example
+ * <code>50,20,0.01</code> for 50 to 70 milliseconds and 1% of errors.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public final class LatencyProfile {
+
+	private final long baseMillis;
+	private final long jitterMillis;
+	private final double errorRate;
+
+	public LatencyProfile(long baseMillis, long jitterMillis, double errorRate) {
+		if (baseMillis < 0 || jitterMillis < 0 || errorRate < 0 || errorRate > 1) {
+			throw new IllegalArgumentException("Invalid latency profile: " + baseMillis + "," + jitterMillis + "," + errorRate);
+		}
+		this.baseMillis = baseMillis;
+		this.jitterMillis = jitterMillis;
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * @param spec
+	 *            the profile, as <code>base,jitter,errorRate</code>.
+	 * @return the profile.
+	 */
+	public static LatencyProfile parse(String spec) {
+		String[] parts = spec.split(",");
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Expected base,jitter,errorRate but was: " + spec);
+		}
+		return new LatencyProfile(Long.parseLong(parts[0].trim()), Long.parseLong(parts[1].trim()),
+				Double.parseDouble(parts[2].trim()));
+	}
+
+	/**
+	 * Waits for the latency of one request.
+	 */
+	public void delay() throws InterruptedException {
+		long millis = baseMillis + (jitterMillis == 0 ? 0 : ThreadLocalRandom.current().nextLong(jitterMillis + 1));
+		if (millis > 0) {
+			Thread.sleep(millis);
+		}
+	}
+
+	/**
+	 * @return whether the request should be answered with an error.
+	 */
+	public boolean fail() {
+		return errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate;
+	}
+
+	@Override
+	public String toString() {
+		return baseMillis + "," + jitterMillis + "," + errorRate;
+	}
+}
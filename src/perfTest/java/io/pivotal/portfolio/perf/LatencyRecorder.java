@@ -0,0 +1,69 @@
+package io.pivotal.portfolio.perf;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records the latencies and errors of one kind of request, for one thread.
+ * Recorders of several threads are merged before reporting.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+final class LatencyRecorder {
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private long[] latencies = new long[1024];
+	private int count;
+	private long errors;
+
+	void record(long nanos, boolean success) {
+		if (count == latencies.length) {
+			latencies = Arrays.copyOf(latencies, count * 2);
+		}
+		latencies[count++] = nanos;
+		if (!success) {
+			errors++;
+		}
+	}
+
+	void merge(LatencyRecorder other) {
+		for (int i = 0; i < other.count; i++) {
+			record(other.latencies[i], true);
+		}
+		errors += other.errors;
+	}
+
+	/**
+	 * Summarizes the requests recorded over the given time.
+	 * 
+	 * @param seconds
+	 *            the duration of the run.
+	 * @return count, errors, throughput and latency percentiles in
+	 *         milliseconds.
+	 */
+	Map<String, Object> summary(double seconds) {
+		long[] sorted = Arrays.copyOf(latencies, count);
+		Arrays.sort(sorted);
+		Map<String, Object> summary = new LinkedHashMap<>();
+		summary.put("count", count);
+		summary.put("errors", errors);
+		summary.put("throughput", count / seconds);
+		for (double percentile : PERCENTILES) {
+			summary.put("p" + (percentile == Math.rint(percentile) ? String.valueOf((long) percentile) : String.valueOf(percentile)),
+					sorted.length == 0 ? 0 : millis(sorted[index(sorted.length, percentile)]));
+		}
+		summary.put("max", sorted.length == 0 ? 0 : millis(sorted[sorted.length - 1]));
+		return summary;
+	}
+
+	private static int index(int length, double percentile) {
+		return Math.min(length - 1, (int) Math.ceil(percentile / 100 * length) - 1);
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1000000.0;
+	}
+}
@@ -0,0 +1,238 @@
+package io.pivotal.portfolio.perf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.sun.net.httpserver.HttpServer;
+import io.pivotal.portfolio.PortfolioApplication;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Boots the portfolio service against an in-memory HSQLDB, local fakes of
+ * the quotes and accounts services and locally minted tokens, drives a
+ * mixed workload of portfolio reads and order submissions, and reports
+ * throughput and latency percentiles.
+ * 
+ * Configured with system properties:
+ * <p><ul>
+ * <li><code>perf.users</code> the number of users, 50 by default.
+ * <li><code>perf.symbols</code> the number of symbols ordered, 20 by default.
+ * <li><code>perf.threads</code> the number of concurrent clients, 16 by default.
+ * <li><code>perf.warmupSeconds</code> the warm up, not reported, 10 by default.
+ * <li><code>perf.durationSeconds</code> the measured run, 60 by default.
+ * <li><code>perf.writeRatio</code> the share of order submissions, 0.2 by default.
+ * <li><code>perf.quotes</code> the {@link LatencyProfile} of the quotes service, 20,10,0 by default.
+ * <li><code>perf.accounts</code> the {@link LatencyProfile} of the accounts service, 20,10,0 by default.
+ * <li><code>perf.report</code> the JSON report, build/reports/perf/report.json by default.
+ * </ul><p>
+ * Program arguments are passed on to the service, for example
+ * <code>--pivotal.portfolio.outbox.enabled=false</code>.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+public class LoadTest {
+
+	private static final String QUOTES_SERVICE = "quotes-perf";
+	private static final String ACCOUNTS_SERVICE = "accounts-perf";
+
+	private final int users = Integer.getInteger("perf.users", 50);
+	private final int symbols = Integer.getInteger("perf.symbols", 20);
+	private final int threads = Integer.getInteger("perf.threads", 16);
+	private final int warmupSeconds = Integer.getInteger("perf.warmupSeconds", 10);
+	private final int durationSeconds = Integer.getInteger("perf.durationSeconds", 60);
+	private final double writeRatio = Double.parseDouble(System.getProperty("perf.writeRatio", "0.2"));
+	private final LatencyProfile quotesProfile = LatencyProfile.parse(System.getProperty("perf.quotes", "20,10,0"));
+	private final LatencyProfile accountsProfile = LatencyProfile.parse(System.getProperty("perf.accounts", "20,10,0"));
+	private final File report = new File(System.getProperty("perf.report", "build/reports/perf/report.json"));
+
+	private String baseUrl;
+
+	public static void main(String[] args) throws Exception {
+		new LoadTest().run(args);
+		// hystrix and the fakes leave non daemon threads behind.
+		System.exit(0);
+	}
+
+	private void run(String[] args) throws Exception {
+		HttpServer quotes = FakeServices.quotes(quotesProfile);
+		HttpServer accounts = FakeServices.accounts(accountsProfile);
+		ConfigurableApplicationContext context = null;
+		try {
+			List<String> arguments = applicationArguments(quotes.getAddress().getPort(), accounts.getAddress().getPort());
+			for (String arg : args) {
+				arguments.add(arg);
+			}
+			// the outbox is measured unless disabled by an argument.
+			context = new SpringApplicationBuilder(PortfolioApplication.class, PerfTestConfiguration.class)
+					.properties("pivotal.portfolio.outbox.enabled=true")
+					.run(arguments.toArray(new String[0]));
+			baseUrl = "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port");
+
+			System.out.println("Warming up for " + warmupSeconds + "s");
+			drive(warmupSeconds);
+			System.out.println("Measuring for " + durationSeconds + "s with " + threads + " clients");
+			long start = System.nanoTime();
+			Map<String, LatencyRecorder> recorders = drive(durationSeconds);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			report(recorders, seconds);
+		} finally {
+			if (context != null) {
+				context.close();
+			}
+			quotes.stop(0);
+			accounts.stop(0);
+		}
+	}
+
+	private List<String> applicationArguments(int quotesPort, int accountsPort) {
+		List<String> arguments = new ArrayList<>();
+		arguments.add("--spring.profiles.active=perf");
+		arguments.add("--spring.cloud.config.enabled=false");
+		arguments.add("--spring.cloud.service-registry.auto-registration.enabled=false");
+		arguments.add("--eureka.client.enabled=false");
+		arguments.add("--ribbon.eureka.enabled=false");
+		arguments.add("--server.port=0");
+		arguments.add("--spring.datasource.url=jdbc:hsqldb:mem:perf");
+		arguments.add("--spring.datasource.username=sa");
+		arguments.add("--spring.datasource.password=");
+		arguments.add("--spring.jpa.hibernate.ddl-auto=create-drop");
+		arguments.add("--spring.security.oauth2.client.registration.perf.client-id=perf");
+		arguments.add("--spring.security.oauth2.client.registration.perf.client-secret=perf");
+		arguments.add("--spring.security.oauth2.client.registration.perf.authorization-grant-type=client_credentials");
+		arguments.add("--spring.security.oauth2.client.provider.perf.token-uri=http://127.0.0.1:" + accountsPort + "/token");
+		arguments.add("--pivotal.quotesService.name=" + QUOTES_SERVICE);
+		arguments.add("--pivotal.accountsService.name=" + ACCOUNTS_SERVICE);
+		arguments.add("--pivotal.accountsService.registrationId=perf");
+		arguments.add("--" + QUOTES_SERVICE + ".ribbon.listOfServers=127.0.0.1:" + quotesPort);
+		arguments.add("--" + ACCOUNTS_SERVICE + ".ribbon.listOfServers=127.0.0.1:" + accountsPort);
+		arguments.add("--pivotal.portfolio.events.enabled=false");
+		arguments.add("--management.health.rabbit.enabled=false");
+		arguments.add("--logging.level.io.pivotal=WARN");
+		return arguments;
+	}
+
+	/**
+	 * Runs the workload on all the clients for the given time.
+	 * 
+	 * @return the latencies recorded, by kind of request.
+	 */
+	private Map<String, LatencyRecorder> drive(int seconds) throws Exception {
+		long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Map<String, LatencyRecorder>>> clients = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			clients.add(executor.submit(() -> client(end)));
+		}
+		Map<String, LatencyRecorder> merged = new LinkedHashMap<>();
+		try {
+			for (Future<Map<String, LatencyRecorder>> client : clients) {
+				for (Map.Entry<String, LatencyRecorder> entry : client.get().entrySet()) {
+					merged.computeIfAbsent(entry.getKey(), key -> new LatencyRecorder()).merge(entry.getValue());
+				}
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		return merged;
+	}
+
+	private Map<String, LatencyRecorder> client(long end) {
+		Map<String, LatencyRecorder> recorders = new LinkedHashMap<>();
+		LatencyRecorder reads = new LatencyRecorder();
+		LatencyRecorder writes = new LatencyRecorder();
+		recorders.put("GET /portfolio", reads);
+		recorders.put("POST /portfolio", writes);
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		while (System.nanoTime() < end) {
+			String userId = "perf" + random.nextInt(users) + "@user.com";
+			long start = System.nanoTime();
+			if (random.nextDouble() < writeRatio) {
+				String order = "{\"accountId\":" + (1 + random.nextInt(users))
+						+ ",\"symbol\":\"S" + random.nextInt(symbols) + "\""
+						+ ",\"orderType\":\"BUY\",\"price\":" + (10 + random.nextInt(500)) + ".25"
+						+ ",\"quantity\":" + (1 + random.nextInt(100))
+						+ ",\"currency\":\"USD\"}";
+				boolean success = call("POST", "/portfolio", userId, order) == 201;
+				writes.record(System.nanoTime() - start, success);
+			} else {
+				boolean success = call("GET", "/portfolio?view=summary", userId, null) == 200;
+				reads.record(System.nanoTime() - start, success);
+			}
+		}
+		return recorders;
+	}
+
+	/**
+	 * @return the HTTP status, or -1 if the request failed.
+	 */
+	private int call(String method, String path, String userId, String body) {
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+			connection.setRequestMethod(method);
+			connection.setRequestProperty("Authorization", "Bearer " + PerfTestConfiguration.token(userId));
+			connection.setRequestProperty("Accept", "application/json");
+			if (body != null) {
+				connection.setDoOutput(true);
+				connection.setRequestProperty("Content-Type", "application/json");
+				try (OutputStream out = connection.getOutputStream()) {
+					out.write(body.getBytes(StandardCharsets.UTF_8));
+				}
+			}
+			int status = connection.getResponseCode();
+			// read the body fully so that the connection is kept alive.
+			try (InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+				if (in != null) {
+					byte[] buffer = new byte[8192];
+					while (in.read(buffer) != -1) {
+						// discarded.
+					}
+				}
+			}
+			return status;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	private void report(Map<String, LatencyRecorder> recorders, double seconds) throws IOException {
+		Map<String, Object> results = new LinkedHashMap<>();
+		Map<String, Object> settings = new LinkedHashMap<>();
+		settings.put("users", users);
+		settings.put("symbols", symbols);
+		settings.put("threads", threads);
+		settings.put("durationSeconds", seconds);
+		settings.put("writeRatio", writeRatio);
+		settings.put("quotes", quotesProfile.toString());
+		settings.put("accounts", accountsProfile.toString());
+		results.put("settings", settings);
+		Map<String, Object> requests = new LinkedHashMap<>();
+		for (Map.Entry<String, LatencyRecorder> entry : recorders.entrySet()) {
+			Map<String, Object> summary = entry.getValue().summary(seconds);
+			requests.put(entry.getKey(), summary);
+			System.out.println(String.format("%-16s %s", entry.getKey(), summary));
+		}
+		results.put("requests", requests);
+		report.getAbsoluteFile().getParentFile().mkdirs();
+		new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(report, results);
+		System.out.println("Report written to " + report.getAbsolutePath());
+	}
+}
@@ -0,0 +1,49 @@
+package io.pivotal.portfolio.perf;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+/**
+ * Replaces the JWT validation by the issuer with tokens minted locally.
+ * 
+ * @author David Ferreira Pinto
+ *
+ */
+@Configuration
+public class PerfTestConfiguration {
+
+	static final String TOKEN_PREFIX = "perf:";
+
+	/**
+	 * @param userId
+	 *            the user.
+	 * @return a bearer token of the user, with the portfolio scope.
+	 */
+	static String token(String userId) {
+		return TOKEN_PREFIX + userId;
+	}
+
+	@Bean
+	public JwtDecoder perfTestJwtDecoder() {
+		return token -> {
+			if (!token.startsWith(TOKEN_PREFIX)) {
+				throw new JwtException("Not a load test token");
+			}
+			String userId = token.substring(TOKEN_PREFIX.length());
+			Map<String, Object> claims = new HashMap<>();
+			claims.put("sub", userId);
+			claims.put("user_id", userId);
+			claims.put("scope", Collections.singletonList("portfolio"));
+			Instant now = Instant.now();
+			return new Jwt(token, now, now.plusSeconds(3600), Collections.<String, Object>singletonMap("alg", "none"), claims);
+		};
+	}
+}
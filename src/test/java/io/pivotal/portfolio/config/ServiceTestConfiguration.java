@@ -10,8 +10,10 @@ import java.util.List;
 
 import io.pivotal.portfolio.domain.Holding;
 import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderAggregate;
 import io.pivotal.portfolio.domain.OrderType;
 import io.pivotal.portfolio.domain.Portfolio;
+import io.pivotal.portfolio.domain.Position;
 import io.pivotal.portfolio.domain.Quote;
 import io.pivotal.portfolio.domain.Transaction;
 
@@ -122,6 +124,27 @@ public class ServiceTestConfiguration {
 		return folio;
 	}
 	
+	public static Position position() {
+		Position position = new Position();
+		position.setPositionId(1);
+		position.setUserId(USER_ID);
+		position.setSymbol(SYMBOL);
+		position.setCurrency("USD");
+		position.apply(order2());
+		return position;
+	}
+
+	public static OrderAggregate orderAggregate() {
+		return new OrderAggregate(SYMBOL, "USD", OrderType.BUY, Long.valueOf(QUANTITY),
+				PRICE.multiply(new BigDecimal(QUANTITY)), 1L, 1);
+	}
+
+	public static List<Position> positions() {
+		List<Position> positions = new ArrayList<>();
+		positions.add(position());
+		return positions;
+	}
+	
 	public static Transaction transaction() {
 		Transaction tx = new Transaction();
 		tx.setAccountId(ACCOUNT_ID);
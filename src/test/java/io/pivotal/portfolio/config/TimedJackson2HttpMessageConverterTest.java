@@ -0,0 +1,27 @@
+package io.pivotal.portfolio.config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.domain.Portfolio;
+
+import org.junit.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+public class TimedJackson2HttpMessageConverterTest {
+
+    @Test
+    public void doWrite() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TimedJackson2HttpMessageConverter converter = new TimedJackson2HttpMessageConverter(new ObjectMapper(), registry);
+        MockHttpOutputMessage message = new MockHttpOutputMessage();
+
+        converter.write(ServiceTestConfiguration.portfolio(), MediaType.APPLICATION_JSON, message);
+
+        assertTrue(message.getBodyAsString().contains(ServiceTestConfiguration.SYMBOL));
+        assertEquals(1, registry.timer("portfolio.serialization", "type", Portfolio.class.getSimpleName(), "outcome", "success").count());
+    }
+}
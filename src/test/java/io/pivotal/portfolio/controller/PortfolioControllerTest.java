@@ -6,6 +6,12 @@ import io.pivotal.portfolio.config.SecurityConfig;
 import io.pivotal.portfolio.config.ServiceTestConfiguration;
 import io.pivotal.portfolio.config.TestSecurityConfiguration;
 import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderHistoryFilter;
+import io.pivotal.portfolio.domain.OrderHistoryPage;
+import io.pivotal.portfolio.domain.OrderResult;
+import io.pivotal.portfolio.domain.OrderType;
+import io.pivotal.portfolio.service.IdempotencyConflictException;
+import io.pivotal.portfolio.service.IdempotentOrderService;
 import io.pivotal.portfolio.service.PortfolioService;
 import org.junit.Before;
 import org.junit.Test;
@@ -17,6 +23,7 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.context.annotation.ComponentScan;
 import org.springframework.context.annotation.FilterType;
 import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.http.MediaType;
 import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.oauth2.jwt.Jwt;
@@ -26,11 +33,16 @@ import org.springframework.test.web.servlet.MockMvc;
 
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 
 import static org.hamcrest.Matchers.hasSize;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.authentication;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
@@ -55,6 +67,9 @@ public class PortfolioControllerTest {
     @MockBean
     private PortfolioService service;
 
+    @MockBean
+    private IdempotentOrderService idempotentService;
+
     private JwtAuthenticationToken token;
 
     @Before
@@ -70,7 +85,7 @@ public class PortfolioControllerTest {
 
     @Test
     public void getPortfolio() throws Exception {
-        when(service.getPortfolio())
+        when(service.getPortfolio("user@user.com", true, null))
                 .thenReturn(ServiceTestConfiguration.portfolio());
 
         mockMvc.perform(
@@ -89,6 +104,133 @@ public class PortfolioControllerTest {
                 .andDo(print());
     }
 
+    @Test
+    public void getPortfolioFull() throws Exception {
+        when(service.getPortfolio("user@user.com", true, null))
+                .thenReturn(ServiceTestConfiguration.portfolio());
+
+        mockMvc.perform(
+                get("/portfolio?view=full")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.holdings.EMC.orders").value(hasSize(1)))
+                .andDo(print());
+    }
+
+    @Test
+    public void getPortfolioUserIdClaim() throws Exception {
+        HashMap<String, Object> claims = new HashMap<>();
+        claims.put("sub", "user@user.com");
+        claims.put("user_id", "user-id");
+        Jwt jwt = new Jwt("tokenValue", Instant.now(), Instant.MAX, Collections.<String, Object>singletonMap("header1", "value1"), claims);
+        JwtAuthenticationToken userIdToken = new JwtAuthenticationToken(jwt, token.getAuthorities());
+        when(service.getPortfolio("user-id", true, null))
+                .thenReturn(ServiceTestConfiguration.portfolio());
+
+        mockMvc.perform(
+                get("/portfolio")
+                        .with(authentication(userIdToken))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andDo(print());
+    }
+
+    @Test
+    public void getPortfolioSummary() throws Exception {
+        when(service.getPortfolio("user@user.com", false, null))
+                .thenReturn(ServiceTestConfiguration.portfolio());
+
+        mockMvc.perform(
+                get("/portfolio?view=summary")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.holdings.*").value(hasSize(1)))
+                .andDo(print());
+    }
+
+    @Test
+    public void getPortfolioUnknownView() throws Exception {
+        mockMvc.perform(
+                get("/portfolio?view=other")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andDo(print());
+    }
+
+    @Test
+    public void getPortfolioBudget() throws Exception {
+        when(service.getPortfolio("user@user.com", true, 500L))
+                .thenReturn(ServiceTestConfiguration.portfolio());
+
+        mockMvc.perform(
+                get("/portfolio?budget=500")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andDo(print());
+    }
+
+    @Test
+    public void getPortfolioInvalidBudget() throws Exception {
+        mockMvc.perform(
+                get("/portfolio?budget=0")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andDo(print());
+    }
+
+    @Test
+    public void getHoldingOrders() throws Exception {
+        when(service.getHoldingOrders("user@user.com", ServiceTestConfiguration.SYMBOL, 0, 50))
+                .thenReturn(new PageImpl<>(Arrays.asList(ServiceTestConfiguration.order2())));
+
+        mockMvc.perform(
+                get("/portfolio/holdings/" + ServiceTestConfiguration.SYMBOL + "/orders")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.content").value(hasSize(1)))
+                .andDo(print());
+    }
+
+    @Test
+    public void getOrderHistory() throws Exception {
+        OrderHistoryPage page = new OrderHistoryPage();
+        page.setOrders(Arrays.asList(ServiceTestConfiguration.order2()));
+        page.setNextCursor("cursor");
+        ArgumentCaptor<OrderHistoryFilter> filterCaptor = ArgumentCaptor.forClass(OrderHistoryFilter.class);
+        when(service.getOrderHistory(filterCaptor.capture(), eq("previous"), eq(20))).thenReturn(page);
+
+        mockMvc.perform(
+                get("/portfolio/orders?symbol=EMC&type=BUY&cursor=previous&size=20")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.orders").value(hasSize(1)))
+                .andExpect(jsonPath("$.nextCursor").value("cursor"))
+                .andDo(print());
+        assertEquals("user@user.com", filterCaptor.getValue().getUserId());
+        assertEquals(ServiceTestConfiguration.SYMBOL, filterCaptor.getValue().getSymbol());
+        assertEquals(OrderType.BUY, filterCaptor.getValue().getOrderType());
+    }
+
+    @Test
+    public void getOrderHistoryInvalidCursor() throws Exception {
+        when(service.getOrderHistory(any(OrderHistoryFilter.class), eq("bad"), eq(50)))
+                .thenThrow(new IllegalArgumentException("Invalid order history cursor: bad"));
+
+        mockMvc.perform(
+                get("/portfolio/orders?cursor=bad")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON))
+                .andExpect(status().isBadRequest())
+                .andDo(print());
+    }
+
     @Test
     public void addOrder() throws Exception {
         //when(token.getName()).thenReturn("userId");
@@ -110,6 +252,64 @@ public class PortfolioControllerTest {
 
     }
 
+    @Test
+    public void addOrderIdempotent() throws Exception {
+        when(idempotentService.addOrder(any(Order.class), eq("tokenValue"), eq("key-1")))
+                .thenReturn(ServiceTestConfiguration.order2());
+
+        mockMvc.perform(
+                post("/portfolio")
+                        .with(authentication(token))
+                        .header("Idempotency-Key", "key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(
+                                convertObjectToJson(ServiceTestConfiguration.order())))
+                .andExpect(status().isCreated()).andDo(print());
+        verify(service, never()).addOrder(any(Order.class), any());
+    }
+
+    @Test
+    public void addOrderIdempotentConflict() throws Exception {
+        when(idempotentService.addOrder(any(Order.class), eq("tokenValue"), eq("key-1")))
+                .thenThrow(new IdempotencyConflictException("user@user.com:key-1"));
+
+        mockMvc.perform(
+                post("/portfolio")
+                        .with(authentication(token))
+                        .header("Idempotency-Key", "key-1")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(
+                                convertObjectToJson(ServiceTestConfiguration.order())))
+                .andExpect(status().isConflict()).andDo(print());
+    }
+
+    @Test
+    public void addOrders() throws Exception {
+        Order saved = ServiceTestConfiguration.order2();
+        when(service.addOrders(any(List.class), eq("user@user.com"), eq("tokenValue")))
+                .thenReturn(Arrays.asList(new OrderResult(0, OrderResult.Status.CREATED, saved, null)));
+
+        mockMvc.perform(
+                post("/portfolio/batch")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(
+                                convertObjectToJson(Arrays.asList(ServiceTestConfiguration.order()))))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].status").value("CREATED"))
+                .andDo(print());
+    }
+
+    @Test
+    public void addOrdersEmpty() throws Exception {
+        mockMvc.perform(
+                post("/portfolio/batch")
+                        .with(authentication(token))
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("[]"))
+                .andExpect(status().isBadRequest());
+    }
+
     private String convertObjectToJson(Object request) throws Exception {
         ObjectMapper mapper = new ObjectMapper();
         mapper.setSerializationInclusion(Include.NON_NULL);
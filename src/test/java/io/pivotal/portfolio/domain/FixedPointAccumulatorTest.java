@@ -0,0 +1,172 @@
+package io.pivotal.portfolio.domain;
+
+import static org.junit.Assert.assertEquals;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Compares the accumulator, value and scale, with the <code>BigDecimal</code>
+ * arithmetic it replaces.
+ *
+ * @author David Ferreira Pinto
+ *
+ */
+public class FixedPointAccumulatorTest {
+
+    private static final int RUNS = 200;
+
+    private static final int AMOUNTS = 500;
+
+    private final Random random = new Random(20181017L);
+
+    @Test
+    public void doAddProductMatchesBigDecimal() {
+        for (int run = 0; run < RUNS; run++) {
+            FixedPointAccumulator accumulator = new FixedPointAccumulator();
+            BigDecimal expected = BigDecimal.ZERO;
+            for (int i = 0; i < AMOUNTS; i++) {
+                BigDecimal price = randomPrice();
+                long quantity = random.nextInt(20001) - 10000;
+                accumulator.addProduct(price, quantity);
+                expected = expected.add(price.multiply(new BigDecimal(quantity)));
+            }
+            assertEquals(expected, accumulator.toBigDecimal());
+        }
+    }
+
+    @Test
+    public void doAddAccumulatorMatchesBigDecimal() {
+        for (int run = 0; run < RUNS; run++) {
+            FixedPointAccumulator total = new FixedPointAccumulator();
+            BigDecimal expected = BigDecimal.ZERO;
+            for (int i = 0; i < 20; i++) {
+                FixedPointAccumulator part = new FixedPointAccumulator();
+                BigDecimal partExpected = BigDecimal.ZERO;
+                for (int j = 0; j < 25; j++) {
+                    BigDecimal price = randomPrice();
+                    part.add(price);
+                    partExpected = partExpected.add(price);
+                }
+                total.add(part);
+                expected = expected.add(partExpected);
+            }
+            assertEquals(expected, total.toBigDecimal());
+        }
+    }
+
+    @Test
+    public void doEmptyIsZero() {
+        assertEquals(BigDecimal.ZERO, new FixedPointAccumulator().toBigDecimal());
+    }
+
+    @Test
+    public void doSet() {
+        FixedPointAccumulator accumulator = new FixedPointAccumulator();
+        accumulator.set(new BigDecimal("12.50"));
+        accumulator.add(new BigDecimal("0.125"));
+        assertEquals(new BigDecimal("12.625"), accumulator.toBigDecimal());
+        accumulator.set(null);
+        assertEquals(BigDecimal.ZERO, accumulator.toBigDecimal());
+    }
+
+    @Test
+    public void doAddOverflow() {
+        FixedPointAccumulator accumulator = new FixedPointAccumulator();
+        BigDecimal price = new BigDecimal("922337203685.4775");
+        accumulator.addProduct(price, 1);
+        accumulator.addProduct(price, 1000);
+        accumulator.add(new BigDecimal("0.01"));
+        BigDecimal expected = price.add(price.multiply(new BigDecimal(1000))).add(new BigDecimal("0.01"));
+        assertEquals(expected, accumulator.toBigDecimal());
+    }
+
+    @Test
+    public void doAddAccumulatorOverflow() {
+        BigDecimal price = new BigDecimal("900000000000000.0001");
+        FixedPointAccumulator total = new FixedPointAccumulator();
+        FixedPointAccumulator part = new FixedPointAccumulator();
+        total.add(price);
+        part.add(price);
+        total.add(part);
+        assertEquals(price.add(price), total.toBigDecimal());
+    }
+
+    @Test
+    public void doAddUnscaledAmounts() {
+        FixedPointAccumulator accumulator = new FixedPointAccumulator();
+        BigDecimal expected = BigDecimal.ZERO;
+        BigDecimal[] amounts = { new BigDecimal("1.25"), new BigDecimal(26.135), new BigDecimal("1E+3"),
+                new BigDecimal("0.00001"), new BigDecimal("-3.5") };
+        for (BigDecimal amount : amounts) {
+            accumulator.addProduct(amount, 3);
+            expected = expected.add(amount.multiply(new BigDecimal(3)));
+        }
+        assertEquals(expected, accumulator.toBigDecimal());
+    }
+
+    @Test
+    public void doHoldingMatchesBigDecimal() {
+        Holding holding = new Holding();
+        BigDecimal purchase = BigDecimal.ZERO;
+        BigDecimal sell = BigDecimal.ZERO;
+        for (int i = 0; i < AMOUNTS; i++) {
+            Order order = new Order();
+            order.setOrderId(i);
+            order.setPrice(randomPrice());
+            order.setQuantity(random.nextInt(1000) + 1);
+            order.setOrderType(random.nextBoolean() ? OrderType.BUY : OrderType.SELL);
+            holding.addOrder(order);
+            BigDecimal value = order.getPrice().multiply(new BigDecimal(order.getQuantity()));
+            if (order.getOrderType() == OrderType.BUY) {
+                purchase = purchase.add(value);
+            } else {
+                sell = sell.add(value);
+            }
+        }
+        assertEquals(purchase, holding.getPurchaseValue());
+        assertEquals(sell, holding.getSellValue());
+    }
+
+    @Test
+    public void doOrderCachesPriceUnits() {
+        Order order = new Order();
+        assertEquals(Long.MIN_VALUE, order.getPriceUnits());
+        order.setPrice(new BigDecimal("12.34"));
+        assertEquals(123400L, order.getPriceUnits());
+        order.setPrice(new BigDecimal(26.135));
+        assertEquals(Long.MIN_VALUE, order.getPriceUnits());
+        // loaded by field, the units are computed after loading.
+        ReflectionTestUtils.setField(order, "price", new BigDecimal("0.5"));
+        order.cachePriceUnits();
+        assertEquals(5000L, order.getPriceUnits());
+    }
+
+    @Test
+    public void doAddProductWithUnitsMatchesBigDecimal() {
+        FixedPointAccumulator accumulator = new FixedPointAccumulator();
+        BigDecimal expected = BigDecimal.ZERO;
+        for (int i = 0; i < AMOUNTS; i++) {
+            BigDecimal price = randomPrice();
+            long quantity = random.nextInt(20001) - 10000;
+            accumulator.addProduct(price, FixedPointAccumulator.toUnits(price), quantity);
+            expected = expected.add(price.multiply(new BigDecimal(quantity)));
+        }
+        assertEquals(expected, accumulator.toBigDecimal());
+    }
+
+    /**
+     * @return a price of 0 to 4 decimals, at times one that does not fit in
+     *         units.
+     */
+    private BigDecimal randomPrice() {
+        if (random.nextInt(100) == 0) {
+            return new BigDecimal(random.nextDouble() * 100);
+        }
+        int scale = random.nextInt(FixedPointAccumulator.SCALE + 1);
+        return BigDecimal.valueOf(random.nextInt(10000000) - 1000000, scale);
+    }
+}
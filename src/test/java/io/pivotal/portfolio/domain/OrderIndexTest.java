@@ -0,0 +1,101 @@
+package io.pivotal.portfolio.domain;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class OrderIndexTest {
+
+    @Test
+    public void doAddKeepsInsertionOrder() {
+        OrderIndex index = new OrderIndex();
+        List<Order> expected = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            // ids that collide in the low bits.
+            Order order = order((i * 1024) - 500000);
+            assertTrue(index.add(order));
+            expected.add(order);
+        }
+        assertEquals(1000, index.size());
+        assertEquals(expected, new ArrayList<>(index));
+        for (Order order : expected) {
+            assertTrue(index.contains(order));
+        }
+        assertFalse(index.contains(order(1)));
+    }
+
+    @Test
+    public void doAddDuplicateId() {
+        OrderIndex index = new OrderIndex();
+        Order order = order(7);
+        assertTrue(index.add(order));
+        Order changed = order(7);
+        changed.setQuantity(99);
+        assertFalse(index.add(changed));
+        // contains matches by id, as add does.
+        assertTrue(index.contains(changed));
+        // the order changing once in does not hide it.
+        order.setQuantity(5);
+        assertFalse(index.add(order(7)));
+        assertTrue(index.contains(order(7)));
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void doAddWithoutId() {
+        OrderIndex index = new OrderIndex();
+        Order order = order(null);
+        assertTrue(index.add(order));
+        assertFalse(index.add(order(null)));
+        assertTrue(index.contains(order(null)));
+        assertTrue(index.add(order(0)));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void doEqualsOtherSets() {
+        OrderIndex index = new OrderIndex();
+        Set<Order> set = new LinkedHashSet<>();
+        for (int i = 0; i < 10; i++) {
+            index.add(order(i));
+            set.add(order(i));
+        }
+        assertEquals(set, index);
+        assertEquals(index, set);
+        assertEquals(set.hashCode(), index.hashCode());
+        index.clear();
+        assertTrue(index.isEmpty());
+        assertTrue(index.add(order(1)));
+    }
+
+    @Test
+    public void doHoldingIgnoresDuplicateOrder() {
+        Holding holding = new Holding();
+        holding.addOrder(order(1));
+        holding.addOrder(order(1));
+        holding.addOrder(order(2));
+        assertEquals(Integer.valueOf(20), holding.getQuantity());
+        assertEquals(new BigDecimal("200.00"), holding.getPurchaseValue());
+        holding.setOrders(new LinkedHashSet<>(Arrays.asList(order(3))));
+        assertEquals(1, holding.getOrders().size());
+    }
+
+    private static Order order(Integer orderId) {
+        Order order = new Order();
+        order.setOrderId(orderId);
+        order.setSymbol("EMC");
+        order.setOrderType(OrderType.BUY);
+        order.setPrice(new BigDecimal("10.00"));
+        order.setQuantity(10);
+        return order;
+    }
+}
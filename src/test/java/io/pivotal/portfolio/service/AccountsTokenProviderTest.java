@@ -0,0 +1,90 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.security.oauth2.client.endpoint.OAuth2AccessTokenResponseClient;
+import org.springframework.security.oauth2.client.endpoint.OAuth2ClientCredentialsGrantRequest;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.OAuth2AccessToken;
+import org.springframework.security.oauth2.core.endpoint.OAuth2AccessTokenResponse;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AccountsTokenProviderTest {
+
+    @Mock
+    private ClientRegistrationRepository registrations;
+
+    @Mock
+    private OAuth2AccessTokenResponseClient<OAuth2ClientCredentialsGrantRequest> tokenClient;
+
+    private AccountsTokenProvider provider;
+
+    @Before
+    public void setup() {
+        provider = new AccountsTokenProvider(registrations, tokenClient);
+        ClientRegistration registration = ClientRegistration.withRegistrationId("accounts")
+                .clientId("portfolio")
+                .clientSecret("secret")
+                .authorizationGrantType(AuthorizationGrantType.CLIENT_CREDENTIALS)
+                .tokenUri("http://uaa/oauth/token")
+                .build();
+        when(registrations.findByRegistrationId("accounts")).thenReturn(registration);
+    }
+
+    @Test
+    public void doReuseToken() {
+        when(tokenClient.getTokenResponse(any())).thenReturn(response("first", 3600), response("second", 3600));
+
+        assertEquals("first", provider.getToken());
+        assertEquals("first", provider.getToken());
+        verify(tokenClient, times(1)).getTokenResponse(any());
+    }
+
+    @Test
+    public void doRefreshExpiringToken() {
+        when(tokenClient.getTokenResponse(any())).thenReturn(response("first", 30), response("second", 3600));
+
+        assertEquals("first", provider.getToken());
+        assertEquals("second", provider.getToken());
+    }
+
+    @Test
+    public void doInvalidate() {
+        when(tokenClient.getTokenResponse(any())).thenReturn(response("first", 3600), response("second", 3600));
+
+        assertEquals("first", provider.getToken());
+        provider.invalidate();
+        assertEquals("second", provider.getToken());
+    }
+
+    @Test
+    public void doCheckRegistration() {
+        provider.checkRegistration();
+        verify(registrations).findByRegistrationId("accounts");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doCheckRegistrationMissing() {
+        when(registrations.findByRegistrationId("accounts")).thenReturn(null);
+
+        provider.checkRegistration();
+    }
+
+    private static OAuth2AccessTokenResponse response(String token, long expiresIn) {
+        return OAuth2AccessTokenResponse.withToken(token)
+                .tokenType(OAuth2AccessToken.TokenType.BEARER)
+                .expiresIn(expiresIn)
+                .build();
+    }
+}
@@ -0,0 +1,204 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.IdempotencyKey;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.repository.IdempotencyKeyRepository;
+import io.pivotal.portfolio.repository.OrderRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class IdempotentOrderServiceTest {
+
+    private static final String BEARER_TOKEN_VALUE = "bearerTokenValue";
+    private static final String KEY = "key-1";
+
+    @Mock
+    private PortfolioService portfolioService;
+
+    @Mock
+    private OrderRepository repo;
+
+    @Mock
+    private IdempotencyKeyRepository keyRepo;
+
+    private IdempotentOrderService service;
+
+    @Before
+    public void setup() {
+        service = new IdempotentOrderService(portfolioService, repo, keyRepo, 100, 60, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(service, "pollMillis", 1);
+    }
+
+    @Test
+    public void doAddOrderOnce() {
+        Order saved = ServiceTestConfiguration.order2();
+        when(portfolioService.addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE))).thenReturn(saved);
+
+        Order first = service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY);
+        Order retry = service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY);
+
+        assertSame(saved, first);
+        assertSame(saved, retry);
+        verify(portfolioService, times(1)).addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE));
+        verify(repo, times(1)).findByUserIdAndIdempotencyKey(ServiceTestConfiguration.USER_ID, KEY);
+        verify(keyRepo, never()).release(any(), any());
+    }
+
+    @Test
+    public void doAddOrderReservesKeyFirst() {
+        when(portfolioService.addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE))).thenReturn(ServiceTestConfiguration.order2());
+
+        service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY);
+
+        InOrder inOrder = inOrder(keyRepo, portfolioService);
+        inOrder.verify(keyRepo).save(any(IdempotencyKey.class));
+        inOrder.verify(portfolioService).addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE));
+    }
+
+    @Test
+    public void doAddOrderReplayedFromDatabase() {
+        Order saved = ServiceTestConfiguration.order2();
+        when(repo.findByUserIdAndIdempotencyKey(ServiceTestConfiguration.USER_ID, KEY)).thenReturn(saved);
+
+        assertSame(saved, service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        verify(portfolioService, never()).addOrder(any(Order.class), any());
+    }
+
+    @Test
+    public void doAddOrderNotSavedIsRetried() {
+        when(portfolioService.addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE))).thenReturn(null);
+
+        assertNull(service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        assertNull(service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        verify(portfolioService, times(2)).addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE));
+        verify(keyRepo, times(2)).release(ServiceTestConfiguration.USER_ID, KEY);
+    }
+
+    @Test
+    public void doAddOrderFailedReleasesKey() {
+        when(portfolioService.addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE))).thenThrow(new IllegalStateException("Connection refused"));
+
+        try {
+            service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY);
+            fail("Expected the failure to propagate");
+        } catch (IllegalStateException e) {
+            verify(keyRepo).release(ServiceTestConfiguration.USER_ID, KEY);
+        }
+    }
+
+    @Test
+    public void doAddOrderReservedElsewhere() {
+        Order saved = ServiceTestConfiguration.order2();
+        when(repo.findByUserIdAndIdempotencyKey(ServiceTestConfiguration.USER_ID, KEY)).thenReturn(null, null, saved);
+        when(keyRepo.save(any(IdempotencyKey.class))).thenThrow(new DataIntegrityViolationException("idempotency_keys_user_key"));
+
+        assertSame(saved, service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        verify(portfolioService, never()).addOrder(any(Order.class), any());
+        verify(keyRepo, never()).release(any(), any());
+    }
+
+    @Test(expected = IdempotencyConflictException.class)
+    public void doAddOrderReservedElsewhereConflict() {
+        ReflectionTestUtils.setField(service, "waitMillis", 0);
+        when(keyRepo.save(any(IdempotencyKey.class))).thenThrow(new DataIntegrityViolationException("idempotency_keys_user_key"));
+
+        try {
+            service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY);
+        } finally {
+            verify(portfolioService, never()).addOrder(any(Order.class), any());
+        }
+    }
+
+    @Test
+    public void doAddOrderTakesOverStaleReservation() {
+        Order saved = ServiceTestConfiguration.order2();
+        when(keyRepo.save(any(IdempotencyKey.class)))
+                .thenThrow(new DataIntegrityViolationException("idempotency_keys_user_key"))
+                .thenReturn(new IdempotencyKey(ServiceTestConfiguration.USER_ID, KEY));
+        when(keyRepo.releaseStale(eq(ServiceTestConfiguration.USER_ID), eq(KEY), any(Date.class))).thenReturn(1);
+        when(portfolioService.addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE))).thenReturn(saved);
+
+        assertSame(saved, service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        verify(keyRepo, times(2)).save(any(IdempotencyKey.class));
+        verify(portfolioService, times(1)).addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE));
+    }
+
+    @Test
+    public void doAddOrderKeepsLiveReservation() {
+        ReflectionTestUtils.setField(service, "waitMillis", 0);
+        when(keyRepo.save(any(IdempotencyKey.class))).thenThrow(new DataIntegrityViolationException("idempotency_keys_user_key"));
+        ArgumentCaptor<Date> beforeCaptor = ArgumentCaptor.forClass(Date.class);
+        when(keyRepo.releaseStale(eq(ServiceTestConfiguration.USER_ID), eq(KEY), beforeCaptor.capture())).thenReturn(0);
+
+        try {
+            service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY);
+            fail("Expected a conflict");
+        } catch (IdempotencyConflictException e) {
+            assertTrue(beforeCaptor.getValue().getTime() <= System.currentTimeMillis() - 30000);
+            verify(portfolioService, never()).addOrder(any(Order.class), any());
+        }
+    }
+
+    @Test
+    public void doPurge() {
+        ArgumentCaptor<Date> beforeCaptor = ArgumentCaptor.forClass(Date.class);
+        when(keyRepo.purge(beforeCaptor.capture())).thenReturn(3);
+
+        service.purge();
+
+        long age = System.currentTimeMillis() - beforeCaptor.getValue().getTime();
+        assertTrue(age >= 60000 && age < 65000);
+    }
+
+    @Test
+    public void doAddOrderJoinsInFlight() throws Exception {
+        Order saved = ServiceTestConfiguration.order2();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(portfolioService.addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE))).then(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return saved;
+        });
+
+        CompletableFuture<Order> first = CompletableFuture.supplyAsync(
+                () -> service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        started.await(5, TimeUnit.SECONDS);
+        CompletableFuture<Order> duplicate = CompletableFuture.supplyAsync(
+                () -> service.addOrder(ServiceTestConfiguration.order(), BEARER_TOKEN_VALUE, KEY));
+        Thread.sleep(50);
+        release.countDown();
+
+        assertSame(saved, first.get(5, TimeUnit.SECONDS));
+        assertSame(saved, duplicate.get(5, TimeUnit.SECONDS));
+        verify(portfolioService, times(1)).addOrder(any(Order.class), eq(BEARER_TOKEN_VALUE));
+    }
+}
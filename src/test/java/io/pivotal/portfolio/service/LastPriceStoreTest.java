@@ -0,0 +1,84 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.LastPrice;
+import io.pivotal.portfolio.domain.Quote;
+import io.pivotal.portfolio.repository.LastPriceRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+
+@RunWith(MockitoJUnitRunner.class)
+public class LastPriceStoreTest {
+
+    @Mock
+    private LastPriceRepository repo;
+
+    private LastPriceStore store;
+
+    @Before
+    public void setup() {
+        store = new LastPriceStore(repo, new SimpleMeterRegistry());
+    }
+
+    @Test
+    public void doLoad() {
+        LastPrice price = new LastPrice(ServiceTestConfiguration.quote(), new Date());
+        when(repo.findAll()).thenReturn(Collections.singletonList(price));
+
+        store.load();
+
+        Quote quote = store.getQuote(ServiceTestConfiguration.SYMBOL);
+        assertEquals(Quote.STATUS_STALE, quote.getStatus());
+        assertEquals(ServiceTestConfiguration.QUOTE_LAST_PRICE, quote.getLastPrice());
+        assertNull(store.getQuote("AAPL"));
+    }
+
+    @Test
+    public void doFlush() {
+        Quote failed = new Quote();
+        failed.setSymbol("AAPL");
+        failed.setStatus(Quote.STATUS_FAILED);
+        store.record(Arrays.asList(ServiceTestConfiguration.quote(), failed));
+        store.record(Collections.singletonList(ServiceTestConfiguration.quote()));
+
+        store.flush();
+        store.flush();
+
+        ArgumentCaptor<List<LastPrice>> saved = ArgumentCaptor.forClass(List.class);
+        verify(repo, times(1)).saveAll(saved.capture());
+        assertEquals(1, saved.getValue().size());
+        assertEquals(ServiceTestConfiguration.SYMBOL, saved.getValue().get(0).getSymbol());
+        assertNull(store.getQuote("AAPL"));
+    }
+
+    @Test
+    public void doFlushFailure() {
+        store.record(Collections.singletonList(ServiceTestConfiguration.quote()));
+        when(repo.saveAll(anyIterable())).thenThrow(new IllegalStateException("database unavailable"));
+
+        store.flush();
+        store.flush();
+
+        verify(repo, times(2)).saveAll(anyIterable());
+        verify(repo, never()).findAll();
+    }
+}
@@ -0,0 +1,76 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.when;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.config.OrderEventsBinding;
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.OrderCancelledEvent;
+import io.pivotal.portfolio.domain.OrderPlacedEvent;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.integration.channel.QueueChannel;
+import org.springframework.messaging.Message;
+import org.springframework.messaging.MessageChannel;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OrderEventPublisherTest {
+
+    @Mock
+    private OrderEventsBinding binding;
+
+    private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private OrderEventPublisher publisher;
+
+    @Before
+    public void setup() {
+        publisher = new OrderEventPublisher(binding, registry);
+    }
+
+    @Test
+    public void doPublish() {
+        QueueChannel channel = new QueueChannel();
+        when(binding.orderPlaced()).thenReturn(channel);
+
+        publisher.publish(new OrderPlacedEvent(ServiceTestConfiguration.order2()));
+
+        Message<?> message = channel.receive(0);
+        OrderPlacedEvent event = (OrderPlacedEvent) message.getPayload();
+        assertEquals(Integer.valueOf(1), event.getOrderId());
+        assertEquals(ServiceTestConfiguration.SYMBOL, message.getHeaders().get("symbol"));
+        assertEquals(1, registry.counter("portfolio.events.published", "result", "sent").count(), 0);
+    }
+
+    @Test
+    public void doPublishCancelled() {
+        QueueChannel channel = new QueueChannel();
+        when(binding.orderCancelled()).thenReturn(channel);
+
+        publisher.publish(new OrderCancelledEvent(ServiceTestConfiguration.order2(), "Declined"));
+
+        Message<?> message = channel.receive(0);
+        OrderCancelledEvent event = (OrderCancelledEvent) message.getPayload();
+        assertEquals(Integer.valueOf(1), event.getOrderId());
+        assertEquals("Declined", event.getReason());
+        assertEquals(ServiceTestConfiguration.USER_ID, message.getHeaders().get("userId"));
+        assertEquals(1, registry.counter("portfolio.events.published", "result", "sent").count(), 0);
+    }
+
+    @Test
+    public void doPublishFailureIsContained() {
+        MessageChannel channel = (message, timeout) -> {
+            throw new IllegalStateException("Broker unavailable");
+        };
+        when(binding.orderPlaced()).thenReturn(channel);
+
+        publisher.publish(new OrderPlacedEvent(ServiceTestConfiguration.order2()));
+
+        assertEquals(1, registry.counter("portfolio.events.published", "result", "failed").count(), 0);
+    }
+}
@@ -0,0 +1,121 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.repository.OrderRepository;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OrderExportServiceTest {
+
+    @InjectMocks
+    private OrderExportService service;
+
+    @Mock
+    private OrderRepository repo;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Spy
+    private ObjectMapper objectMapper = new ObjectMapper();
+
+    @Test
+    public void doExportCsv() throws IOException {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        Order tagged = ServiceTestConfiguration.order2();
+        tagged.setTag("long, \"core\"");
+        when(repo.streamByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Stream.of(ServiceTestConfiguration.order2(), tagged));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long written = service.export(ServiceTestConfiguration.USER_ID, OrderExportService.Format.CSV, out);
+
+        assertEquals(2, written);
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        assertTrue(lines[0].startsWith("orderId,"));
+        assertTrue(lines[1].startsWith("1,500,EMC,BUY,1000,10,"));
+        assertTrue(lines[2].endsWith(",\"long, \"\"core\"\"\""));
+        verify(entityManager, times(2)).detach(any(Order.class));
+    }
+
+    @Test
+    public void doExportCsvEscapesFormulas() throws IOException {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        Order formula = ServiceTestConfiguration.order2();
+        formula.setTag("=HYPERLINK(\"http://evil\",\"x\")");
+        formula.setSymbol("@SUM");
+        when(repo.streamByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Stream.of(formula));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        service.export(ServiceTestConfiguration.USER_ID, OrderExportService.Format.CSV, out);
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertTrue(lines[1].startsWith("1,500,'@SUM,BUY,1000,10,"));
+        assertTrue(lines[1].endsWith(",\"'=HYPERLINK(\"\"http://evil\"\",\"\"x\"\")\""));
+    }
+
+    @Test
+    public void doExportNdjson() throws IOException {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(repo.streamByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Stream.of(ServiceTestConfiguration.order2(), ServiceTestConfiguration.sellOrder()));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        service.export(ServiceTestConfiguration.USER_ID, OrderExportService.Format.NDJSON, out);
+
+        String[] lines = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertEquals("SELL", objectMapper.readTree(lines[1]).get("orderType").asText());
+    }
+
+    @Test
+    public void doExportAbortedOnWriteFailure() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        AtomicBoolean closed = new AtomicBoolean();
+        when(repo.streamByUserId(ServiceTestConfiguration.USER_ID))
+                .thenReturn(Stream.of(ServiceTestConfiguration.order2()).onClose(() -> closed.set(true)));
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Broken pipe");
+            }
+        };
+        try {
+            service.export(ServiceTestConfiguration.USER_ID, OrderExportService.Format.CSV, disconnected);
+            fail("export should abort");
+        } catch (IOException e) {
+            assertEquals("Broken pipe", e.getMessage());
+        }
+        assertTrue(closed.get());
+        verify(transactionManager).rollback(any());
+    }
+}
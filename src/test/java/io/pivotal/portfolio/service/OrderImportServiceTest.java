@@ -0,0 +1,172 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderImportJob;
+import io.pivotal.portfolio.domain.OrderType;
+import io.pivotal.portfolio.domain.PositionRebuildResult;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OrderImportServiceTest {
+
+    private static final String HEADER = "userId,accountId,symbol,orderType,quantity,price,orderFee,currency,completionDate,tag\n";
+
+    @InjectMocks
+    private OrderImportService service;
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private PositionService positionService;
+
+    @Test
+    public void doImportOrders() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        ReflectionTestUtils.setField(service, "batchSize", 2);
+        when(positionService.rebuild(anyString())).thenAnswer(invocation -> applied(invocation.getArgument(0)));
+        String csv = HEADER
+                + "davpin,500,EMC,BUY,1000,10.00,1.00,USD,2012-02-20T17:35:42.904Z,\"long, core\"\n"
+                + "davpin,500,EMC,SELL,400,12.50,,USD,2012-03-20T17:35:42Z,\n"
+                + "\n"
+                + "other,501,AAPL,BUY,10,100,1.00,USD,2013-01-02T10:00:00Z,\n";
+
+        OrderImportJob job = service.importOrders(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(OrderImportJob.Status.COMPLETED, job.getStatus());
+        assertEquals(3, job.getRead());
+        assertEquals(3, job.getImported());
+        assertEquals(0, job.getRejected());
+        assertEquals(2, job.getUsers());
+        ArgumentCaptor<Collection<Order>> batchCaptor = ArgumentCaptor.forClass(Collection.class);
+        verify(jdbcTemplate, times(2)).batchUpdate(anyString(), batchCaptor.capture(), anyInt(), any(ParameterizedPreparedStatementSetter.class));
+        List<Collection<Order>> batches = batchCaptor.getAllValues();
+        assertEquals(2, batches.get(0).size());
+        Order first = batches.get(0).iterator().next();
+        assertEquals("long, core", first.getTag());
+        assertEquals(ServiceTestConfiguration.COMPLETION_DATE, first.getCompletionDate());
+        Order second = (Order) batches.get(0).toArray()[1];
+        assertEquals(OrderType.SELL, second.getOrderType());
+        assertEquals(Order.DEFAULT_ORDER_FEE, second.getOrderFee());
+        verify(positionService).rebuild("davpin");
+        verify(positionService).rebuild("other");
+    }
+
+    @Test
+    public void doImportRejectsInvalidOrders() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(positionService.rebuild(anyString())).thenAnswer(invocation -> applied(invocation.getArgument(0)));
+        String csv = HEADER
+                + "davpin,500,EMC,HOLD,1000,10.00,1.00,USD,2012-02-20T17:35:42Z,\n"
+                + "davpin,500,EMC,BUY,-5,10.00,1.00,USD,2012-02-20T17:35:42Z,\n"
+                + "davpin,500,EMC,BUY,5,10.00,1.00,USD,yesterday,\n"
+                + "davpin,500,EMC,BUY,5,10.00,1.00,USD,2012-02-20T17:35:42Z,\n";
+
+        OrderImportJob job = service.importOrders(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(OrderImportJob.Status.COMPLETED, job.getStatus());
+        assertEquals(4, job.getRead());
+        assertEquals(1, job.getImported());
+        assertEquals(3, job.getRejected());
+        assertTrue(job.getErrors().get(0).startsWith("line 2: Invalid orderType"));
+    }
+
+    @Test
+    public void doImportRebuildNotApplied() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        PositionRebuildResult mismatched = applied("other");
+        mismatched.setApplied(false);
+        mismatched.getMismatched().add("AAPL");
+        when(positionService.rebuild("davpin")).thenReturn(applied("davpin"));
+        when(positionService.rebuild("other")).thenReturn(mismatched);
+        String csv = HEADER
+                + "davpin,500,EMC,BUY,1000,10.00,1.00,USD,2012-02-20T17:35:42Z,\n"
+                + "other,501,AAPL,BUY,10,100,1.00,USD,2013-01-02T10:00:00Z,\n";
+
+        OrderImportJob job = service.importOrders(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(OrderImportJob.Status.COMPLETED_WITH_ERRORS, job.getStatus());
+        assertTrue(job.isFinished());
+        assertEquals(2, job.getImported());
+        assertEquals(1, job.getUsers());
+        assertEquals(1, job.getNotRebuilt());
+        assertEquals(Arrays.asList("user other: Positions do not match the orders: [AAPL]"), job.getErrors());
+    }
+
+    @Test
+    public void doImportFailsMidImport() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(jdbcTemplate.batchUpdate(anyString(), any(Collection.class), anyInt(), any(ParameterizedPreparedStatementSetter.class)))
+                .thenReturn(new int[0][]).thenThrow(new DataAccessResourceFailureException("Connection lost"));
+        when(positionService.rebuild(anyString())).thenAnswer(invocation -> applied(invocation.getArgument(0)));
+        ReflectionTestUtils.setField(service, "batchSize", 1);
+        String csv = HEADER
+                + "davpin,500,EMC,BUY,1000,10.00,1.00,USD,2012-02-20T17:35:42Z,\n"
+                + "other,501,AAPL,BUY,10,100,1.00,USD,2013-01-02T10:00:00Z,\n";
+
+        OrderImportJob job = service.importOrders(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(OrderImportJob.Status.FAILED, job.getStatus());
+        assertEquals("Connection lost", job.getFailure());
+        assertEquals(1, job.getImported());
+        // the first batch is committed, its user is rebuilt.
+        verify(positionService).rebuild("davpin");
+        verify(positionService, never()).rebuild("other");
+        assertEquals(1, job.getUsers());
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    public void doImportMissingColumn() {
+        String csv = "userId,symbol\ndavpin,EMC\n";
+        OrderImportJob job = service.importOrders(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+        assertEquals(OrderImportJob.Status.FAILED, job.getStatus());
+        assertEquals("Missing column: accountId", job.getFailure());
+        verify(positionService, never()).rebuild(anyString());
+        assertEquals(Arrays.asList(job), service.getJobs());
+    }
+
+    @Test
+    public void doParseQuotedLine() {
+        assertEquals(Arrays.asList("a", "b, \"c\"", ""), OrderImportService.parseLine("a,\"b, \"\"c\"\"\","));
+    }
+
+    private static PositionRebuildResult applied(String userId) {
+        PositionRebuildResult result = new PositionRebuildResult();
+        result.setUserId(userId);
+        result.setApplied(true);
+        return result;
+    }
+}
@@ -0,0 +1,199 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.OutboxTransaction;
+import io.pivotal.portfolio.domain.Transaction;
+import io.pivotal.portfolio.domain.TransactionType;
+import io.pivotal.portfolio.repository.OutboxTransactionRepository;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(MockitoJUnitRunner.class)
+public class OutboxDispatcherTest {
+
+    private static final String SERVICE_TOKEN = "serviceToken";
+    private static final String OUTBOX_KEY = "portfolio-outbox-7";
+
+    @Mock
+    private OutboxTransactionRepository repo;
+
+    @Mock
+    private PortfolioService portfolioService;
+
+    @Mock
+    private AccountsTokenProvider tokenProvider;
+
+    private SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private OutboxDispatcher dispatcher;
+
+    private OutboxTransaction pending;
+
+    @Before
+    public void setup() {
+        dispatcher = new OutboxDispatcher(repo, portfolioService, tokenProvider, registry);
+        Transaction transaction = ServiceTestConfiguration.transaction();
+        transaction.setType(TransactionType.DEBIT);
+        pending = new OutboxTransaction(transaction, Arrays.asList(1, 2));
+        pending.setOutboxId(7);
+    }
+
+    private void due() {
+        when(repo.findTop100ByStatusAndNextAttemptAtLessThanEqualOrderByOutboxIdAsc(eq(OutboxTransaction.Status.PENDING), any(Date.class)))
+                .thenReturn(Collections.singletonList(pending));
+        when(repo.claim(eq(7), eq(OutboxTransaction.Status.PENDING), eq(OutboxTransaction.Status.DISPATCHING), any(Date.class))).thenReturn(1);
+        when(tokenProvider.getToken()).thenReturn(SERVICE_TOKEN);
+    }
+
+    @Test
+    public void doDispatch() {
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenReturn(HttpStatus.OK);
+
+        dispatcher.dispatch();
+
+        assertEquals(OutboxTransaction.Status.DONE, pending.getStatus());
+        assertEquals(Integer.valueOf(1), pending.getAttempts());
+        assertNotNull(pending.getDispatchedAt());
+        verify(repo).save(pending);
+        verify(portfolioService, never()).cancelOrders(anyCollection(), anyString());
+        assertEquals(1, registry.counter("portfolio.outbox.dispatch", "result", "delivered").count(), 0);
+    }
+
+    @Test
+    public void doDispatchRetry() {
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenThrow(new IllegalStateException("Connection refused"));
+
+        dispatcher.dispatch();
+
+        assertEquals(OutboxTransaction.Status.PENDING, pending.getStatus());
+        assertEquals("Connection refused", pending.getLastError());
+        assertTrue(pending.getNextAttemptAt().after(new Date()));
+        verify(repo).save(pending);
+    }
+
+    @Test
+    public void doDispatchServerErrorRetry() {
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenReturn(HttpStatus.SERVICE_UNAVAILABLE);
+
+        dispatcher.dispatch();
+
+        assertEquals(OutboxTransaction.Status.PENDING, pending.getStatus());
+        verify(portfolioService, never()).cancelOrders(anyCollection(), anyString());
+    }
+
+    @Test
+    public void doDispatchUnauthorizedRetry() {
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenReturn(HttpStatus.UNAUTHORIZED);
+
+        dispatcher.dispatch();
+
+        assertEquals(OutboxTransaction.Status.PENDING, pending.getStatus());
+        verify(tokenProvider).invalidate();
+        verify(portfolioService, never()).cancelOrders(anyCollection(), anyString());
+    }
+
+    @Test
+    public void doDispatchDeclined() {
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenReturn(HttpStatus.BAD_REQUEST);
+
+        dispatcher.dispatch();
+
+        assertEquals(OutboxTransaction.Status.DECLINED, pending.getStatus());
+        assertEquals(Integer.valueOf(1), pending.getAttempts());
+        assertNotNull(pending.getDispatchedAt());
+        verify(portfolioService).cancelOrders(eq(Arrays.asList(1, 2)), eq("Transaction not accepted by the accounts service: 400 BAD_REQUEST"));
+        verify(repo).save(pending);
+        assertEquals(1, registry.counter("portfolio.outbox.dispatch", "result", "declined").count(), 0);
+    }
+
+    @Test
+    public void doDispatchDeclinedCancelFails() {
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenReturn(HttpStatus.BAD_REQUEST);
+        doThrow(new IllegalStateException("Lock timeout")).when(portfolioService).cancelOrders(anyCollection(), anyString());
+
+        dispatcher.dispatch();
+
+        // posted again, and cancelled then.
+        assertEquals(OutboxTransaction.Status.PENDING, pending.getStatus());
+        assertEquals("Lock timeout", pending.getLastError());
+    }
+
+    @Test
+    public void doDispatchFailed() {
+        ReflectionTestUtils.setField(dispatcher, "maxAttempts", 1);
+        due();
+        when(portfolioService.sendTransaction(any(Transaction.class), eq(SERVICE_TOKEN), eq(OUTBOX_KEY))).thenReturn(HttpStatus.INTERNAL_SERVER_ERROR);
+
+        dispatcher.dispatch();
+
+        assertEquals(OutboxTransaction.Status.FAILED, pending.getStatus());
+        verify(repo).save(pending);
+    }
+
+    @Test
+    public void doDispatchClaimedElsewhere() {
+        when(repo.findTop100ByStatusAndNextAttemptAtLessThanEqualOrderByOutboxIdAsc(eq(OutboxTransaction.Status.PENDING), any(Date.class)))
+                .thenReturn(Collections.singletonList(pending));
+        when(repo.claim(eq(7), eq(OutboxTransaction.Status.PENDING), eq(OutboxTransaction.Status.DISPATCHING), any(Date.class))).thenReturn(0);
+
+        dispatcher.dispatch();
+
+        verify(portfolioService, never()).sendTransaction(any(Transaction.class), any(), any());
+        verify(repo, never()).save(any(OutboxTransaction.class));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doStartRejectsAccountsTimeoutLongerThanClaim() {
+        when(portfolioService.getAccountsTimeoutMillis()).thenReturn(300000L);
+
+        dispatcher.start();
+    }
+
+    @Test
+    public void doPurge() {
+        List<OutboxTransaction> full = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            full.add(new OutboxTransaction());
+        }
+        List<OutboxTransaction> rest = Collections.singletonList(pending);
+        when(repo.findTop100ByStatusInAndDispatchedAtBeforeOrderByOutboxIdAsc(
+                eq(Arrays.asList(OutboxTransaction.Status.DONE, OutboxTransaction.Status.DECLINED)), any(Date.class)))
+                .thenReturn(full, rest);
+
+        dispatcher.purge();
+
+        verify(repo).deleteAll(full);
+        verify(repo).deleteAll(rest);
+    }
+}
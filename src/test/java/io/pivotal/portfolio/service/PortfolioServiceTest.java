@@ -2,31 +2,59 @@ package io.pivotal.portfolio.service;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 import static org.mockito.Mockito.isA;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import java.math.BigDecimal;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 
 import com.sun.mail.iap.Argument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.Holding;
 import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderHistoryFilter;
+import io.pivotal.portfolio.domain.OrderHistoryPage;
+import io.pivotal.portfolio.domain.OrderResult;
+import io.pivotal.portfolio.domain.OrderPlacedEvent;
+import io.pivotal.portfolio.domain.OrderType;
+import io.pivotal.portfolio.domain.OrderCancelledEvent;
+import io.pivotal.portfolio.domain.OutboxTransaction;
 import io.pivotal.portfolio.domain.Portfolio;
+import io.pivotal.portfolio.domain.Position;
+import io.pivotal.portfolio.domain.PriceStatus;
 import io.pivotal.portfolio.domain.Quote;
 import io.pivotal.portfolio.domain.Transaction;
+import io.pivotal.portfolio.domain.TransactionType;
 import io.pivotal.portfolio.repository.OrderRepository;
+import io.pivotal.portfolio.repository.OutboxTransactionRepository;
+import io.pivotal.portfolio.repository.PositionRepository;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -51,9 +79,27 @@ public class PortfolioServiceTest {
     @Mock
     private OrderRepository repo;
 
+    @Mock
+    private PositionRepository positionRepo;
+
+    @Mock
+    private PositionService positionService;
+
     @Mock
     private QuoteRemoteCallService quoteService;
 
+    @Mock
+    private OutboxTransactionRepository outboxRepo;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Spy
+    private PortfolioCache portfolioCache = new PortfolioCache(100, 60, new SimpleMeterRegistry());
+
+    @Spy
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
     @Mock
     private WebClient webClient;
 
@@ -77,12 +123,197 @@ public class PortfolioServiceTest {
 
     @Test
     public void doGetPortfolio() {
-        when(repo.getOrders()).thenReturn(ServiceTestConfiguration.orders());
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
         ArgumentCaptor<Set<String>> symbolsCaptor = ArgumentCaptor.forClass(Set.class);
-        when(quoteService.getMultipleQuotes(symbolsCaptor.capture())).thenReturn(Arrays.asList(ServiceTestConfiguration.quote()));
-        Portfolio folio = service.getPortfolio();
+        when(quoteService.getQuotes(symbolsCaptor.capture())).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID);
         assertEquals(ServiceTestConfiguration.order().getSymbol(), symbolsCaptor.getValue().iterator().next());
         assertNotNull(folio);
+        assertEquals(ServiceTestConfiguration.QUANTITY, folio.getHolding(ServiceTestConfiguration.SYMBOL).getQuantity());
+        assertEquals(PriceStatus.CURRENT, folio.getHolding(ServiceTestConfiguration.SYMBOL).getPriceStatus());
+        verify(repo, never()).getOrders();
+        for (String stage : Arrays.asList("load", "group", "quotes", "aggregate")) {
+            assertEquals(stage, 1, meterRegistry.timer("portfolio.read.stage", "stage", stage, "outcome", "success").count());
+        }
+        assertEquals(1, meterRegistry.summary("portfolio.read.symbols").count());
+    }
+
+    @Test
+    public void doGetPortfolioLastKnownPrice() {
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        Quote stale = ServiceTestConfiguration.quote();
+        stale.setStatus(Quote.STATUS_STALE);
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(stale)));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        Holding holding = folio.getHolding(ServiceTestConfiguration.SYMBOL);
+        assertEquals(PriceStatus.STALE, holding.getPriceStatus());
+        assertEquals(ServiceTestConfiguration.QUOTE_LAST_PRICE, holding.getCurrentValue());
+    }
+
+    @Test
+    public void doGetPortfolioPriceUnavailable() {
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        Quote failed = new Quote();
+        failed.setSymbol(ServiceTestConfiguration.SYMBOL);
+        failed.setStatus(Quote.STATUS_FAILED);
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(failed)));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        assertEquals(PriceStatus.UNAVAILABLE, folio.getHolding(ServiceTestConfiguration.SYMBOL).getPriceStatus());
+    }
+
+    @Test
+    public void doGetPortfolioCached() {
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        Portfolio first = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        Portfolio second = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        assertEquals(first, second);
+        verify(positionRepo, times(1)).findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID);
+        verify(quoteService, times(2)).getQuotes(any(Set.class));
+
+        portfolioCache.evict(ServiceTestConfiguration.USER_ID);
+        service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        verify(positionRepo, times(2)).findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID);
+    }
+
+    @Test
+    public void doGetPortfolioOverlap() {
+        when(positionRepo.findSymbolsByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(ServiceTestConfiguration.SYMBOL));
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        assertEquals(ServiceTestConfiguration.QUOTE_LAST_PRICE, folio.getHolding(ServiceTestConfiguration.SYMBOL).getCurrentValue());
+        verify(quoteService, never()).getMultipleQuotes(any(Set.class));
+        assertEquals(1, meterRegistry.timer("portfolio.read.overlap").count());
+    }
+
+    @Test
+    public void doGetPortfolioBudgetExceeded() {
+        when(positionRepo.findSymbolsByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(ServiceTestConfiguration.SYMBOL));
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.never());
+        Quote stale = ServiceTestConfiguration.quote();
+        stale.setStatus(Quote.STATUS_STALE);
+        when(quoteService.getAvailableQuotes(any(Set.class))).thenReturn(Arrays.asList(stale));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID, false, 50L);
+        Holding holding = folio.getHolding(ServiceTestConfiguration.SYMBOL);
+        assertEquals(PriceStatus.STALE, holding.getPriceStatus());
+        assertEquals(ServiceTestConfiguration.QUOTE_LAST_PRICE, holding.getCurrentValue());
+        assertEquals(1, meterRegistry.counter("portfolio.read.budget.exceeded").count(), 0);
+    }
+
+    @Test
+    public void doGetPortfolioFullBudgetExceeded() {
+        when(positionRepo.findSymbolsByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(ServiceTestConfiguration.SYMBOL));
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.never());
+        when(quoteService.getAvailableQuotes(any(Set.class))).thenReturn(Arrays.asList(ServiceTestConfiguration.quote()));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID, true, 50L);
+        assertTrue(folio.getHolding(ServiceTestConfiguration.SYMBOL).getOrders().isEmpty());
+        verify(repo, never()).findByUserIdOrderByCompletionDateAsc(any());
+        assertEquals(2, meterRegistry.counter("portfolio.read.budget.exceeded").count(), 0);
+    }
+
+    @Test
+    public void doGetPortfolioAggregated() {
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(Collections.emptyList());
+        Position aggregated = ServiceTestConfiguration.position();
+        aggregated.setPositionId(null);
+        when(positionService.aggregatePositions(ServiceTestConfiguration.USER_ID)).thenReturn(Collections.singletonList(aggregated));
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        assertEquals(ServiceTestConfiguration.QUANTITY, folio.getHolding(ServiceTestConfiguration.SYMBOL).getQuantity());
+        verify(repo, never()).getOrders();
+    }
+
+    @Test
+    public void doGetPortfolioFull() {
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        when(repo.findByUserIdOrderByCompletionDateAsc(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(ServiceTestConfiguration.order2()));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID, true);
+        Holding holding = folio.getHolding(ServiceTestConfiguration.SYMBOL);
+        assertEquals(1, holding.getOrders().size());
+        assertEquals(ServiceTestConfiguration.QUANTITY, holding.getQuantity());
+    }
+
+    @Test
+    public void doGetHoldingOrders() {
+        ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
+        when(repo.findByUserIdAndSymbol(eq(ServiceTestConfiguration.USER_ID), eq(ServiceTestConfiguration.SYMBOL), pageableCaptor.capture()))
+                .thenReturn(new PageImpl<>(Arrays.asList(ServiceTestConfiguration.order2())));
+        Page<Order> orders = service.getHoldingOrders(ServiceTestConfiguration.USER_ID, ServiceTestConfiguration.SYMBOL, 2, 10000);
+        assertEquals(1, orders.getContent().size());
+        assertEquals(2, pageableCaptor.getValue().getPageNumber());
+        assertEquals(200, pageableCaptor.getValue().getPageSize());
+    }
+
+    @Test
+    public void doGetOrderHistory() {
+        OrderHistoryFilter filter = new OrderHistoryFilter();
+        filter.setUserId(ServiceTestConfiguration.USER_ID);
+        Order newer = ServiceTestConfiguration.order2();
+        newer.setOrderId(2);
+        Order older = ServiceTestConfiguration.order2();
+        Order oldest = ServiceTestConfiguration.order2();
+        oldest.setOrderId(0);
+        when(repo.findHistory(filter, null, null, 3)).thenReturn(Arrays.asList(newer, older, oldest));
+        OrderHistoryPage first = service.getOrderHistory(filter, null, 2);
+        assertEquals(Arrays.asList(newer, older), first.getOrders());
+        assertNotNull(first.getNextCursor());
+
+        when(repo.findHistory(filter, ServiceTestConfiguration.COMPLETION_DATE, 1, 3)).thenReturn(Arrays.asList(oldest));
+        OrderHistoryPage second = service.getOrderHistory(filter, first.getNextCursor(), 2);
+        assertEquals(Arrays.asList(oldest), second.getOrders());
+        assertNull(second.getNextCursor());
+    }
+
+    @Test
+    public void doGetOrderHistoryWithoutCompletionDate() {
+        OrderHistoryFilter filter = new OrderHistoryFilter();
+        filter.setUserId(ServiceTestConfiguration.USER_ID);
+        Order newer = ServiceTestConfiguration.order2();
+        newer.setOrderId(2);
+        Order undated = ServiceTestConfiguration.order2();
+        undated.setOrderId(3);
+        undated.setCompletionDate(null);
+        Order older = ServiceTestConfiguration.order2();
+        when(repo.findHistory(filter, null, null, 2)).thenReturn(Arrays.asList(newer, undated, older));
+
+        OrderHistoryPage page = service.getOrderHistory(filter, null, 1);
+
+        assertEquals(Arrays.asList(newer), page.getOrders());
+        assertNotNull(page.getNextCursor());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void doGetOrderHistoryInvalidCursor() {
+        OrderHistoryFilter filter = new OrderHistoryFilter();
+        filter.setUserId(ServiceTestConfiguration.USER_ID);
+        service.getOrderHistory(filter, "not-a-cursor", 10);
+    }
+
+    @Test
+    public void doGetPortfolioSkipsEmptyPositions() {
+        Position empty = new Position();
+        empty.setUserId(ServiceTestConfiguration.USER_ID);
+        empty.setSymbol("AAPL");
+        List<Position> positions = ServiceTestConfiguration.positions();
+        positions.add(empty);
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(positions);
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        Portfolio folio = service.getPortfolio(ServiceTestConfiguration.USER_ID);
+        assertEquals(Collections.singleton(ServiceTestConfiguration.SYMBOL), folio.getHoldings().keySet());
+    }
+
+    @Test
+    public void doGetPortfolioReactive() {
+        when(positionRepo.findByUserIdOrderBySymbolAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.positions());
+        when(quoteService.getQuotes(any(Set.class))).thenReturn(Mono.just(Arrays.asList(ServiceTestConfiguration.quote())));
+        Portfolio folio = service.getPortfolioReactive(ServiceTestConfiguration.USER_ID).block();
+        assertNotNull(folio);
+        assertEquals(ServiceTestConfiguration.QUOTE_LAST_PRICE, folio.getHolding(ServiceTestConfiguration.SYMBOL).getCurrentValue());
+        assertEquals(ServiceTestConfiguration.QUOTE_LAST_PRICE.multiply(new BigDecimal(ServiceTestConfiguration.QUANTITY)), folio.getCurrentTotalValue());
     }
 
     @Test
@@ -107,6 +338,17 @@ public class PortfolioServiceTest {
 
         Order order = service.addOrder(expectedOrder, BEARER_TOKEN_VALUE);
         assertEquals(expectedOrder, order);
+        InOrder saveOrder = inOrder(positionService, repo);
+        saveOrder.verify(positionService).lockPosition(expectedOrder.getUserId(), expectedOrder.getSymbol(), expectedOrder.getCurrency());
+        saveOrder.verify(repo).save(expectedOrder);
+        saveOrder.verify(positionService).applyOrder(expectedOrder);
+        verify(portfolioCache).evict(expectedOrder.getUserId());
+        ArgumentCaptor<OrderPlacedEvent> eventCaptor = ArgumentCaptor.forClass(OrderPlacedEvent.class);
+        verify(eventPublisher).publishEvent(eventCaptor.capture());
+        assertEquals(expectedOrder.getOrderId(), eventCaptor.getValue().getOrderId());
+        for (String stage : Arrays.asList("build", "accounts", "save")) {
+            assertEquals(stage, 1, meterRegistry.timer("portfolio.write.stage", "stage", stage, "outcome", "success").count());
+        }
     }
 
     @Test
@@ -159,4 +401,149 @@ public class PortfolioServiceTest {
         assertEquals(order, returnOrder);
     }
 
+    @Test
+    public void doSaveOrders() {
+        Order buy = ServiceTestConfiguration.order();
+        Order sell = ServiceTestConfiguration.order();
+        sell.setOrderType(OrderType.SELL);
+        sell.setQuantity(400);
+        Order invalid = ServiceTestConfiguration.order();
+        invalid.setQuantity(0);
+        mockAccountsCall(HttpStatus.OK);
+        ArgumentCaptor<Transaction> transactionCaptor = ArgumentCaptor.forClass(Transaction.class);
+        when(requestBodySpec.syncBody(transactionCaptor.capture())).thenReturn(requestHeadersSpec);
+        when(repo.saveAll(Arrays.asList(buy, sell))).then(invocation -> {
+            buy.setOrderId(1);
+            sell.setOrderId(2);
+            return Arrays.asList(buy, sell);
+        });
+
+        List<OrderResult> results = service.addOrders(Arrays.asList(buy, invalid, sell), ServiceTestConfiguration.USER_ID, BEARER_TOKEN_VALUE);
+
+        assertEquals(OrderResult.Status.CREATED, results.get(0).getStatus());
+        assertEquals(OrderResult.Status.REJECTED, results.get(1).getStatus());
+        assertEquals(OrderResult.Status.CREATED, results.get(2).getStatus());
+        assertEquals(Integer.valueOf(2), results.get(2).getOrder().getOrderId());
+        Transaction transaction = transactionCaptor.getValue();
+        assertEquals(TransactionType.DEBIT, transaction.getType());
+        // 1000 * 10 + 1 bought less 400 * 10 - 1 sold.
+        assertEquals(0, new BigDecimal(6002).compareTo(transaction.getAmount()));
+        verify(webClient, times(1)).post();
+        verify(positionService).applyOrder(buy);
+        verify(positionService).applyOrder(sell);
+        verify(portfolioCache).evict(ServiceTestConfiguration.USER_ID);
+    }
+
+    @Test
+    public void doSaveOrdersDeclined() {
+        Order buy = ServiceTestConfiguration.order();
+        mockAccountsCall(HttpStatus.BAD_REQUEST);
+        when(requestBodySpec.syncBody(any(Transaction.class))).thenReturn(requestHeadersSpec);
+
+        List<OrderResult> results = service.addOrders(Arrays.asList(buy), ServiceTestConfiguration.USER_ID, BEARER_TOKEN_VALUE);
+
+        assertEquals(OrderResult.Status.FAILED, results.get(0).getStatus());
+        verify(repo, never()).saveAll(any());
+        verify(positionService, never()).applyOrder(any());
+        assertEquals(1, meterRegistry.timer("portfolio.write.stage", "stage", "accounts", "outcome", "declined").count());
+    }
+
+    @Test
+    public void doSaveOrderOutbox() {
+        ReflectionTestUtils.setField(service, "outboxEnabled", true);
+        Order expectedOrder = ServiceTestConfiguration.order();
+        expectedOrder.setOrderId(1);
+        when(repo.save(expectedOrder)).thenReturn(expectedOrder);
+        ArgumentCaptor<OutboxTransaction> outboxCaptor = ArgumentCaptor.forClass(OutboxTransaction.class);
+        when(outboxRepo.save(outboxCaptor.capture())).then(invocation -> invocation.getArgument(0));
+
+        Order order = service.addOrder(expectedOrder, BEARER_TOKEN_VALUE);
+
+        assertEquals(expectedOrder, order);
+        verify(webClient, never()).post();
+        verify(positionService).applyOrder(expectedOrder);
+        OutboxTransaction pending = outboxCaptor.getValue();
+        assertEquals(OutboxTransaction.Status.PENDING, pending.getStatus());
+        assertEquals(Arrays.asList(1), pending.getOrderIds());
+        assertEquals(TransactionType.DEBIT, pending.getType());
+    }
+
+    @Test
+    public void doSaveOrdersOutbox() {
+        ReflectionTestUtils.setField(service, "outboxEnabled", true);
+        Order buy = ServiceTestConfiguration.order();
+        Order other = ServiceTestConfiguration.order();
+        other.setAccountId(501);
+        Order another = ServiceTestConfiguration.order();
+        when(repo.saveAll(any())).then(invocation -> {
+            buy.setOrderId(1);
+            other.setOrderId(2);
+            another.setOrderId(3);
+            return Arrays.asList(buy, other, another);
+        });
+        ArgumentCaptor<OutboxTransaction> outboxCaptor = ArgumentCaptor.forClass(OutboxTransaction.class);
+        when(outboxRepo.save(outboxCaptor.capture())).then(invocation -> invocation.getArgument(0));
+
+        List<OrderResult> results = service.addOrders(Arrays.asList(buy, other, another), ServiceTestConfiguration.USER_ID, BEARER_TOKEN_VALUE);
+
+        assertEquals(OrderResult.Status.CREATED, results.get(0).getStatus());
+        assertEquals(OrderResult.Status.CREATED, results.get(1).getStatus());
+        assertEquals(OrderResult.Status.CREATED, results.get(2).getStatus());
+        InOrder inOrder = inOrder(repo, outboxRepo);
+        inOrder.verify(repo).saveAll(any());
+        inOrder.verify(outboxRepo, times(2)).save(any(OutboxTransaction.class));
+        List<OutboxTransaction> pending = outboxCaptor.getAllValues();
+        assertEquals(Arrays.asList(1, 3), pending.get(0).getOrderIds());
+        assertEquals(Arrays.asList(2), pending.get(1).getOrderIds());
+        verify(webClient, never()).post();
+    }
+
+    @Test
+    public void doCancelOrders() {
+        Order buy = ServiceTestConfiguration.order();
+        buy.setOrderId(1);
+        buy.setSymbol("GOOG");
+        Order other = ServiceTestConfiguration.order();
+        other.setOrderId(2);
+        when(repo.findAllById(Arrays.asList(1, 2))).thenReturn(Arrays.asList(buy, other));
+
+        service.cancelOrders(Arrays.asList(1, 2), "Declined");
+
+        // one symbol after the other.
+        InOrder inOrder = inOrder(positionService, repo);
+        inOrder.verify(positionService).revertOrder(other);
+        inOrder.verify(repo).delete(other);
+        inOrder.verify(positionService).revertOrder(buy);
+        inOrder.verify(repo).delete(buy);
+        verify(portfolioCache).evict(ServiceTestConfiguration.USER_ID);
+        ArgumentCaptor<OrderCancelledEvent> eventCaptor = ArgumentCaptor.forClass(OrderCancelledEvent.class);
+        verify(eventPublisher, times(2)).publishEvent(eventCaptor.capture());
+        assertEquals(Integer.valueOf(2), eventCaptor.getAllValues().get(0).getOrderId());
+        assertEquals("Declined", eventCaptor.getAllValues().get(0).getReason());
+    }
+
+    @Test
+    public void doSendTransactionWithKey() {
+        mockAccountsCall(HttpStatus.CONFLICT);
+        when(requestBodySpec.syncBody(any(Transaction.class))).thenReturn(requestHeadersSpec);
+        when(requestHeadersSpec.header(eq("Idempotency-Key"), eq("portfolio-outbox-7"))).thenReturn(requestHeadersSpec);
+
+        assertEquals(HttpStatus.CONFLICT, service.sendTransaction(ServiceTestConfiguration.transaction(), BEARER_TOKEN_VALUE, "portfolio-outbox-7"));
+        verify(requestHeadersSpec).header("Idempotency-Key", "portfolio-outbox-7");
+    }
+
+    private void mockAccountsCall(HttpStatus status) {
+        when(webClient.post()).thenReturn(requestBodyUriSpec);
+        when(requestBodyUriSpec.uri("//"
+                + ACCOUNTS_SERVICE
+                + "/accounts/transaction")).thenReturn(requestBodySpec);
+        when(requestBodySpec.contentType(MediaType.APPLICATION_JSON)).thenReturn(requestBodySpec);
+        when(requestHeadersSpec.header(eq(HttpHeaders.AUTHORIZATION), eq("Bearer " + BEARER_TOKEN_VALUE))).thenReturn(requestHeadersSpec);
+        when(requestHeadersSpec.exchange()).thenReturn(Mono.just(clientResponse));
+        when(clientResponse.statusCode()).thenReturn(status);
+        if (status == HttpStatus.OK) {
+            when(clientResponse.bodyToMono(String.class)).thenReturn(Mono.just("SUCCESS"));
+        }
+    }
+
 }
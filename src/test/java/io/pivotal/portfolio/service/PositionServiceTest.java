@@ -0,0 +1,191 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import io.pivotal.portfolio.config.ServiceTestConfiguration;
+import io.pivotal.portfolio.domain.Order;
+import io.pivotal.portfolio.domain.OrderAggregate;
+import io.pivotal.portfolio.domain.OrderType;
+import io.pivotal.portfolio.domain.Position;
+import io.pivotal.portfolio.domain.PositionRebuildResult;
+import io.pivotal.portfolio.repository.OrderRepository;
+import io.pivotal.portfolio.repository.PositionRepository;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+@RunWith(MockitoJUnitRunner.class)
+public class PositionServiceTest {
+
+    @InjectMocks
+    private PositionService service;
+
+    @Mock
+    private PositionRepository positionRepo;
+
+    @Mock
+    private OrderRepository orderRepo;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Mock
+    private PortfolioCache portfolioCache;
+
+    @Test
+    public void doApplyOrderNewPosition() {
+        Order order = ServiceTestConfiguration.order2();
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        ArgumentCaptor<Iterable<Position>> createdCaptor = ArgumentCaptor.forClass(Iterable.class);
+        when(positionRepo.saveAll(createdCaptor.capture())).thenReturn(Collections.emptyList());
+        when(positionRepo.findByUserIdAndSymbol(ServiceTestConfiguration.USER_ID, ServiceTestConfiguration.SYMBOL))
+                .thenReturn(null)
+                .then(invocation -> createdCaptor.getValue().iterator().next());
+        when(positionRepo.save(any(Position.class))).then(invocation -> invocation.getArgument(0));
+        Position position = service.applyOrder(order);
+        assertEquals(ServiceTestConfiguration.QUANTITY, position.getQuantity());
+        assertEquals(order.getOrderId(), position.getLastOrderId());
+        assertEquals(Integer.valueOf(1), position.getOrderCount());
+    }
+
+    @Test
+    public void doApplyOrderOutOfIdOrder() {
+        Position position = ServiceTestConfiguration.position();
+        position.setLastOrderId(5);
+        when(positionRepo.findByUserIdAndSymbol(ServiceTestConfiguration.USER_ID, ServiceTestConfiguration.SYMBOL)).thenReturn(position);
+        when(positionRepo.save(position)).thenReturn(position);
+        service.applyOrder(ServiceTestConfiguration.order2());
+        assertEquals(Integer.valueOf(ServiceTestConfiguration.QUANTITY * 2), position.getQuantity());
+        assertEquals(Integer.valueOf(5), position.getLastOrderId());
+        assertEquals(Integer.valueOf(2), position.getOrderCount());
+    }
+
+    @Test
+    public void doRevertOrder() {
+        Position position = ServiceTestConfiguration.position();
+        when(positionRepo.findByUserIdAndSymbol(ServiceTestConfiguration.USER_ID, ServiceTestConfiguration.SYMBOL)).thenReturn(position);
+        when(positionRepo.save(position)).thenReturn(position);
+        service.revertOrder(ServiceTestConfiguration.order2());
+        assertEquals(Integer.valueOf(0), position.getQuantity());
+        assertEquals(0, BigDecimal.ZERO.compareTo(position.getPurchaseValue()));
+        assertEquals(Integer.valueOf(0), position.getOrderCount());
+    }
+
+    @Test
+    public void doLockPositionCreatedConcurrently() {
+        Position created = ServiceTestConfiguration.position();
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(positionRepo.countByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(1L);
+        when(positionRepo.saveAll(any())).thenThrow(new DataIntegrityViolationException("positions_userid_symbol"));
+        when(positionRepo.findByUserIdAndSymbol(ServiceTestConfiguration.USER_ID, ServiceTestConfiguration.SYMBOL))
+                .thenReturn(null, created);
+        assertSame(created, service.lockPosition(ServiceTestConfiguration.USER_ID, ServiceTestConfiguration.SYMBOL, "USD"));
+        verify(transactionManager).rollback(any());
+    }
+
+    @Test
+    public void doLockPositionBackfills() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        OrderAggregate other = new OrderAggregate("AAPL", "USD", OrderType.BUY, 10L, new BigDecimal(1000), 1L, 3);
+        when(orderRepo.aggregateByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(other, ServiceTestConfiguration.orderAggregate()));
+        ArgumentCaptor<Iterable<Position>> createdCaptor = ArgumentCaptor.forClass(Iterable.class);
+        when(positionRepo.saveAll(createdCaptor.capture())).thenReturn(Collections.emptyList());
+        Position locked = new Position();
+        when(positionRepo.findByUserIdAndSymbol(ServiceTestConfiguration.USER_ID, "GOOG")).thenReturn(null, locked);
+
+        assertSame(locked, service.lockPosition(ServiceTestConfiguration.USER_ID, "GOOG", "USD"));
+
+        List<String> symbols = new ArrayList<>();
+        for (Position position : createdCaptor.getValue()) {
+            symbols.add(position.getSymbol());
+        }
+        assertEquals(Arrays.asList("AAPL", ServiceTestConfiguration.SYMBOL, "GOOG"), symbols);
+        verify(portfolioCache).evict(ServiceTestConfiguration.USER_ID);
+    }
+
+    @Test
+    public void doRebuild() {
+        Order buy = ServiceTestConfiguration.order2();
+        Order sell = ServiceTestConfiguration.sellOrder();
+        sell.setOrderId(2);
+        sell.setQuantity(400);
+        when(orderRepo.findByUserIdOrderByCompletionDateAsc(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(buy, sell));
+        OrderAggregate sold = new OrderAggregate(ServiceTestConfiguration.SYMBOL, "USD", OrderType.SELL, 400L, new BigDecimal(4000), 1L, 2);
+        when(orderRepo.aggregateByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(ServiceTestConfiguration.orderAggregate(), sold));
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        Position stale = ServiceTestConfiguration.position();
+        when(positionRepo.lockByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Collections.singletonList(stale));
+        ArgumentCaptor<Iterable<Position>> savedCaptor = ArgumentCaptor.forClass(Iterable.class);
+        when(positionRepo.saveAll(savedCaptor.capture())).thenReturn(Collections.emptyList());
+
+        PositionRebuildResult result = service.rebuild(ServiceTestConfiguration.USER_ID);
+
+        assertTrue(result.isApplied());
+        assertEquals(2, result.getOrders());
+        assertTrue(result.getMismatched().isEmpty());
+        assertEquals(Collections.singleton(ServiceTestConfiguration.SYMBOL), result.getDrifted());
+        verify(positionRepo).deleteByUserId(ServiceTestConfiguration.USER_ID);
+        verify(portfolioCache).evict(ServiceTestConfiguration.USER_ID);
+        Position rebuilt = savedCaptor.getValue().iterator().next();
+        assertEquals(Integer.valueOf(600), rebuilt.getQuantity());
+        assertEquals(0, new BigDecimal(4000).compareTo(rebuilt.getSellValue()));
+        assertEquals(Integer.valueOf(2), rebuilt.getLastOrderId());
+    }
+
+    @Test
+    public void doRebuildAll() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(orderRepo.findUserIds()).thenReturn(Collections.singletonList(ServiceTestConfiguration.USER_ID));
+        when(orderRepo.findByUserIdOrderByCompletionDateAsc(ServiceTestConfiguration.USER_ID)).thenReturn(ServiceTestConfiguration.orders());
+        when(orderRepo.aggregateByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Collections.singletonList(ServiceTestConfiguration.orderAggregate()));
+        List<PositionRebuildResult> results = service.rebuildAll();
+        assertEquals(1, results.size());
+        assertTrue(results.get(0).isApplied());
+        assertTrue(results.get(0).getDrifted().isEmpty());
+    }
+
+    @Test
+    public void doRebuildMismatch() {
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        when(orderRepo.findByUserIdOrderByCompletionDateAsc(ServiceTestConfiguration.USER_ID)).thenReturn(Collections.emptyList());
+        when(orderRepo.aggregateByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Collections.singletonList(ServiceTestConfiguration.orderAggregate()));
+        PositionRebuildResult result = service.rebuild(ServiceTestConfiguration.USER_ID);
+        assertFalse(result.isApplied());
+        assertEquals(Collections.singleton(ServiceTestConfiguration.SYMBOL), result.getMismatched());
+        verify(positionRepo, never()).deleteByUserId(any());
+    }
+
+    @Test
+    public void doAggregatePositions() {
+        OrderAggregate sold = new OrderAggregate(ServiceTestConfiguration.SYMBOL, "USD", OrderType.SELL, 400L, new BigDecimal(4000), 3L, 7);
+        when(orderRepo.aggregateByUserId(ServiceTestConfiguration.USER_ID)).thenReturn(Arrays.asList(sold, ServiceTestConfiguration.orderAggregate()));
+        List<Position> positions = service.aggregatePositions(ServiceTestConfiguration.USER_ID);
+        assertEquals(1, positions.size());
+        Position position = positions.get(0);
+        assertEquals(Integer.valueOf(600), position.getQuantity());
+        assertEquals(0, new BigDecimal(10000).compareTo(position.getPurchaseValue()));
+        assertEquals(0, new BigDecimal(4000).compareTo(position.getSellValue()));
+        assertEquals(Integer.valueOf(7), position.getLastOrderId());
+        assertEquals(Integer.valueOf(4), position.getOrderCount());
+    }
+}
@@ -0,0 +1,81 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.math.BigDecimal;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.domain.Quote;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PriceTableTest {
+
+    private static final Instant NOW = Instant.parse("2015-05-06T14:00:00Z");
+
+    private SimpleMeterRegistry registry;
+
+    private PriceTable table;
+
+    @Before
+    public void setup() {
+        registry = new SimpleMeterRegistry();
+        table = new PriceTable(60, registry);
+        table.setClock(Clock.fixed(NOW, ZoneOffset.UTC));
+    }
+
+    @Test
+    public void doLookup() {
+        Quote quote = quote("EMC", "26.13", NOW);
+        assertTrue(table.update(quote));
+
+        PriceTable.Lookup lookup = table.lookup(Arrays.asList("EMC", "AAPL"));
+
+        assertEquals(Collections.singletonList(quote), lookup.getQuotes());
+        assertEquals(Collections.singleton("AAPL"), lookup.getUnresolved());
+        assertEquals(1, registry.counter("quotes.stream.requests", "result", "hit").count(), 0);
+        assertEquals(1, registry.counter("quotes.stream.requests", "result", "miss").count(), 0);
+    }
+
+    @Test
+    public void doLookupStale() {
+        table.update(quote("EMC", "26.13", NOW));
+        table.setClock(Clock.fixed(NOW.plusSeconds(61), ZoneOffset.UTC));
+
+        PriceTable.Lookup lookup = table.lookup(Collections.singleton("EMC"));
+
+        assertTrue(lookup.getQuotes().isEmpty());
+        assertEquals(Collections.singleton("EMC"), lookup.getUnresolved());
+        assertEquals(61000, table.getAge("EMC"));
+        assertEquals(-1, table.getAge("AAPL"));
+    }
+
+    @Test
+    public void doUpdateOutOfOrder() {
+        Quote latest = quote("EMC", "26.13", NOW);
+        table.update(latest);
+
+        assertFalse(table.update(quote("EMC", "25.00", NOW.minusSeconds(1))));
+        assertFalse(table.update(quote("EMC", null, NOW.plusSeconds(1))));
+
+        assertEquals(Collections.singletonList(latest), table.lookup(Collections.singleton("EMC")).getQuotes());
+        assertEquals(2, registry.counter("quotes.stream.updates", "result", "ignored").count(), 0);
+    }
+
+    private Quote quote(String symbol, String price, Instant timestamp) {
+        Quote quote = new Quote();
+        quote.setSymbol(symbol);
+        quote.setLastPrice(price == null ? null : new BigDecimal(price));
+        quote.setTimestamp(Date.from(timestamp));
+        return quote;
+    }
+}
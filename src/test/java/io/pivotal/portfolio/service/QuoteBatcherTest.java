@@ -0,0 +1,63 @@
+package io.pivotal.portfolio.service;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.pivotal.portfolio.domain.Quote;
+
+import org.junit.Test;
+import reactor.core.publisher.Mono;
+
+public class QuoteBatcherTest {
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    private Mono<List<Quote>> fetch(List<String> symbols) {
+        batches.add(symbols);
+        List<Quote> quotes = new ArrayList<>();
+        for (String symbol : symbols) {
+            Quote quote = new Quote();
+            quote.setSymbol(symbol);
+            quotes.add(quote);
+        }
+        return Mono.just(quotes);
+    }
+
+    @Test
+    public void doBatchConcurrentFetches() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        QuoteBatcher batcher = new QuoteBatcher(200, 100, this::fetch, registry);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Quote>> first = executor.submit(() -> batcher.fetch(Collections.singletonList("EMC")).block());
+            Future<List<Quote>> second = executor.submit(() -> batcher.fetch(Collections.singletonList("AAPL")).block());
+            assertEquals("EMC", first.get(5, TimeUnit.SECONDS).get(0).getSymbol());
+            assertEquals(1, first.get().size());
+            assertEquals("AAPL", second.get(5, TimeUnit.SECONDS).get(0).getSymbol());
+            assertEquals(1, second.get().size());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, registry.get("quotes.batch.latency").timer().count());
+    }
+
+    @Test
+    public void doCloseFullBatch() {
+        QuoteBatcher batcher = new QuoteBatcher(60000, 2, this::fetch, new SimpleMeterRegistry());
+        List<Quote> quotes = batcher.fetch(Arrays.asList("EMC", "AAPL")).block();
+        assertEquals(2, quotes.size());
+        assertEquals(1, batches.size());
+    }
+}
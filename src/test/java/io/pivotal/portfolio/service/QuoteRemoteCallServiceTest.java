@@ -1,5 +1,6 @@
 package io.pivotal.portfolio.service;
 
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import io.pivotal.portfolio.PortfolioApplication;
 import io.pivotal.portfolio.config.ServiceTestConfiguration;
 import io.pivotal.portfolio.domain.Quote;
@@ -13,10 +14,16 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.ArgumentMatchers.isA;
 import static org.mockito.Mockito.when;
 
@@ -25,6 +32,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
@@ -35,6 +44,18 @@ import org.springframework.web.reactive.function.client.ClientResponse;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Mono;
 
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.mockito.Mockito.when;
@@ -58,6 +79,27 @@ public class QuoteRemoteCallServiceTest {
 	@Mock
 	private WebClient.ResponseSpec responseSpec;
 
+	@Mock
+	private WebClient.RequestHeadersUriSpec failingHeadersSpec;
+
+	@Mock
+	private WebClient.ResponseSpec failingResponseSpec;
+
+	@Spy
+	private QuoteCache quoteCache = new QuoteCache(15, 900, "America/New_York", new SimpleMeterRegistry());
+
+	@Mock
+	private LastPriceStore lastPriceStore;
+
+	@Spy
+	private PriceTable priceTable = new PriceTable(60, new SimpleMeterRegistry());
+
+	@Spy
+	private TaskExecutor taskExecutor = new SyncTaskExecutor();
+
+	@Spy
+	private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
 	@Before
 	public void setup() {
 		ReflectionTestUtils.setField(service, "quotesService", QUOTES_URL);
@@ -76,4 +118,144 @@ public class QuoteRemoteCallServiceTest {
 		assertEquals(ServiceTestConfiguration.quote(),quote);
 	}
 
+	@Test
+	public void doGetMultipleQuotesCached() {
+		mockMultipleQuotes(ServiceTestConfiguration.SYMBOL);
+		List<Quote> quotes = service.getMultipleQuotes(Collections.singleton(ServiceTestConfiguration.SYMBOL));
+		assertEquals(Collections.singletonList(ServiceTestConfiguration.quote()), quotes);
+		quotes = service.getMultipleQuotes(Collections.singleton(ServiceTestConfiguration.SYMBOL));
+		assertEquals(Collections.singletonList(ServiceTestConfiguration.quote()), quotes);
+		verify(webClient, times(1)).get();
+		assertEquals(1, meterRegistry.counter("quotes.remote.fetches").count(), 0);
+	}
+
+	@Test
+	public void doGetMultipleQuotesStale() {
+		Instant fetchedAt = Instant.parse("2015-05-06T14:00:00Z");
+		quoteCache.setClock(Clock.fixed(fetchedAt, ZoneOffset.UTC));
+		quoteCache.put(Collections.singletonList(ServiceTestConfiguration.quote()));
+		quoteCache.setClock(Clock.fixed(fetchedAt.plusSeconds(60), ZoneOffset.UTC));
+		mockMultipleQuotes(ServiceTestConfiguration.SYMBOL);
+
+		List<Quote> quotes = service.getMultipleQuotes(Collections.singleton(ServiceTestConfiguration.SYMBOL));
+
+		assertEquals(Collections.singletonList(ServiceTestConfiguration.quote()), quotes);
+		verify(taskExecutor).execute(any(Runnable.class));
+		verify(webClient, times(1)).get();
+		assertTrue(quoteCache.lookup(Collections.singleton(ServiceTestConfiguration.SYMBOL)).getStale().isEmpty());
+	}
+
+	@Test
+	public void doMarketHours() {
+		assertTrue(quoteCache.isMarketOpen(Instant.parse("2015-05-06T14:00:00Z")));
+		assertFalse(quoteCache.isMarketOpen(Instant.parse("2015-05-06T21:00:00Z")));
+		assertFalse(quoteCache.isMarketOpen(Instant.parse("2015-05-09T14:00:00Z")));
+	}
+
+	@Test
+	public void doGetMultipleQuotesSingleFlight() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		when(webClient.get()).thenReturn(requestHeadersSpec);
+		when(requestHeadersSpec.uri(eq("//" + QUOTES_URL + "/v1/quotes?q=" + ServiceTestConfiguration.SYMBOL))).thenReturn(requestHeadersSpec);
+		when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+		when(responseSpec.bodyToMono(any(ParameterizedTypeReference.class))).thenReturn(Mono.fromCallable(() -> {
+			started.countDown();
+			release.await();
+			return Collections.singletonList(ServiceTestConfiguration.quote());
+		}));
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<List<Quote>> first = executor.submit(() -> service.getMultipleQuotes(Collections.singleton(ServiceTestConfiguration.SYMBOL)));
+			started.await(5, TimeUnit.SECONDS);
+			Future<List<Quote>> second = executor.submit(() -> service.getMultipleQuotes(Collections.singleton(ServiceTestConfiguration.SYMBOL)));
+			while (meterRegistry.counter("quotes.singleflight.joined").count() < 1) {
+				Thread.sleep(5);
+			}
+			release.countDown();
+			assertEquals(Collections.singletonList(ServiceTestConfiguration.quote()), first.get(5, TimeUnit.SECONDS));
+			assertEquals(Collections.singletonList(ServiceTestConfiguration.quote()), second.get(5, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+		verify(webClient, times(1)).get();
+	}
+
+	@Test
+	public void doGetMultipleQuotesChunkFailure() {
+		ReflectionTestUtils.setField(service, "chunkSize", 1);
+		mockMultipleQuotes(ServiceTestConfiguration.SYMBOL);
+		when(requestHeadersSpec.uri(eq("//" + QUOTES_URL + "/v1/quotes?q=AAPL"))).thenReturn(failingHeadersSpec);
+		when(failingHeadersSpec.retrieve()).thenReturn(failingResponseSpec);
+		when(failingResponseSpec.bodyToMono(any(ParameterizedTypeReference.class))).thenReturn(Mono.error(new IllegalStateException("quotes unavailable")));
+
+		List<Quote> quotes = service.getMultipleQuotes(Arrays.asList(ServiceTestConfiguration.SYMBOL, "AAPL"));
+
+		assertEquals(2, quotes.size());
+		for (Quote quote : quotes) {
+			if (quote.getSymbol().equals(ServiceTestConfiguration.SYMBOL)) {
+				assertEquals(ServiceTestConfiguration.quote(), quote);
+			} else {
+				assertEquals("FAILED", quote.getStatus());
+			}
+		}
+		verify(webClient, times(2)).get();
+		assertEquals(1, meterRegistry.counter("quotes.remote.failures").count(), 0);
+	}
+
+	@Test
+	public void doGetMultipleQuotesLastKnownPrice() {
+		ReflectionTestUtils.setField(service, "chunkSize", 1);
+		mockMultipleQuotes(ServiceTestConfiguration.SYMBOL);
+		when(requestHeadersSpec.uri(eq("//" + QUOTES_URL + "/v1/quotes?q=AAPL"))).thenReturn(failingHeadersSpec);
+		when(failingHeadersSpec.retrieve()).thenReturn(failingResponseSpec);
+		when(failingResponseSpec.bodyToMono(any(ParameterizedTypeReference.class))).thenReturn(Mono.error(new IllegalStateException("quotes unavailable")));
+		Quote lastKnown = new Quote();
+		lastKnown.setSymbol("AAPL");
+		lastKnown.setLastPrice(ServiceTestConfiguration.QUOTE_LAST_PRICE);
+		lastKnown.setStatus(Quote.STATUS_STALE);
+		when(lastPriceStore.getQuote("AAPL")).thenReturn(lastKnown);
+
+		List<Quote> quotes = service.getMultipleQuotes(Arrays.asList(ServiceTestConfiguration.SYMBOL, "AAPL"));
+
+		assertEquals(2, quotes.size());
+		assertTrue(quotes.contains(lastKnown));
+		verify(lastPriceStore).record(Collections.singletonList(ServiceTestConfiguration.quote()));
+		assertEquals(Collections.singleton("AAPL"), quoteCache.lookup(Collections.singleton("AAPL")).getMissing());
+	}
+
+	@Test
+	public void doGetMultipleQuotesStreamed() {
+		ReflectionTestUtils.setField(service, "quotesSource", "stream");
+		Quote streamed = new Quote();
+		streamed.setSymbol("AAPL");
+		streamed.setLastPrice(ServiceTestConfiguration.QUOTE_LAST_PRICE);
+		priceTable.update(streamed);
+		mockMultipleQuotes(ServiceTestConfiguration.SYMBOL);
+
+		List<Quote> quotes = service.getMultipleQuotes(Arrays.asList("AAPL", ServiceTestConfiguration.SYMBOL));
+
+		assertEquals(Arrays.asList(streamed, ServiceTestConfiguration.quote()), quotes);
+		verify(webClient, times(1)).get();
+		assertEquals(1, meterRegistry.counter("quotes.remote.symbols").count(), 0);
+	}
+
+	@Test
+	public void doGetQuoteStreamed() {
+		ReflectionTestUtils.setField(service, "quotesSource", "stream");
+		priceTable.update(ServiceTestConfiguration.quote());
+
+		Quote quote = service.getQuote(ServiceTestConfiguration.SYMBOL);
+
+		assertEquals(ServiceTestConfiguration.quote(), quote);
+		verify(webClient, times(0)).get();
+	}
+
+	private void mockMultipleQuotes(String symbols) {
+		when(webClient.get()).thenReturn(requestHeadersSpec);
+		when(requestHeadersSpec.uri(eq("//" + QUOTES_URL + "/v1/quotes?q=" + symbols))).thenReturn(requestHeadersSpec);
+		when(requestHeadersSpec.retrieve()).thenReturn(responseSpec);
+		when(responseSpec.bodyToMono(any(ParameterizedTypeReference.class))).thenReturn(Mono.just(Collections.singletonList(ServiceTestConfiguration.quote())));
+	}
+
 }